@@ -1,41 +1,98 @@
 package com.fbellotti.microservice.gateway;
 
+import com.fbellotti.microservice.gateway.assets.StaticAssetHandler;
+import com.fbellotti.microservice.gateway.auth.CachingJWTAuth;
+import com.fbellotti.microservice.gateway.cache.CachedResponse;
+import com.fbellotti.microservice.gateway.cache.ResponseCache;
+import com.fbellotti.microservice.gateway.metrics.GatewayMetrics;
+import com.fbellotti.microservice.gateway.metrics.Phase;
+import com.fbellotti.microservice.gateway.proxy.BatchDispatcher;
+import com.fbellotti.microservice.gateway.proxy.HedgingPolicy;
+import com.fbellotti.microservice.gateway.proxy.HopByHopHeaders;
+import com.fbellotti.microservice.gateway.proxy.ProxyRequest;
+import com.fbellotti.microservice.gateway.proxy.RequestCoalescer;
+import com.fbellotti.microservice.gateway.resilience.Bulkhead;
+import com.fbellotti.microservice.gateway.resilience.RateLimiter;
+import com.fbellotti.microservice.gateway.routing.Backend;
+import com.fbellotti.microservice.gateway.routing.Route;
+import com.fbellotti.microservice.gateway.routing.RoutingTable;
+import com.fbellotti.microservice.gateway.session.NearCacheSessionStore;
 import com.fbellotti.vertx.api.RestAPIVerticle;
+import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
-import io.vertx.core.http.HttpClient;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.Http2Settings;
+import io.vertx.core.http.HttpMethod;
 import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.net.JksOptions;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.core.streams.Pump;
 import io.vertx.ext.auth.jwt.JWTAuth;
+import io.vertx.ext.healthchecks.HealthCheckHandler;
+import io.vertx.ext.healthchecks.Status;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.BodyHandler;
+import io.vertx.ext.web.handler.CookieHandler;
 import io.vertx.ext.web.handler.JWTAuthHandler;
+import io.vertx.ext.web.handler.SessionHandler;
 import io.vertx.ext.web.handler.StaticHandler;
 import io.vertx.servicediscovery.Record;
-import io.vertx.servicediscovery.ServiceDiscovery;
+import io.vertx.servicediscovery.ServiceDiscoveryOptions;
 import io.vertx.servicediscovery.types.HttpEndpoint;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
-import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A verticle for global API gateway.
  * This API gateway uses HTTP-HTTP pattern. It's also responsible for
  * load balance and failure handling.
  *
+ * The verticle deployed first deploys the other instances, one per core by
+ * default, which all listen on the same port. Each instance runs on its own
+ * event loop with its own routing table, backend clients and caches, only the
+ * lock-free metrics, rate limiter and hedging policy are shared through the local
+ * shared data.
+ *
  * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
  */
 public class APIGatewayVerticle extends RestAPIVerticle {
 
   private static final Logger logger = LoggerFactory.getLogger(APIGatewayVerticle.class);
   private static final int DEFAULT_PORT = 8787;
+  private static final int API_PREFIX_LENGTH = 5; // length of `/api/`
+  private static final String ARRIVED_AT = "gateway.arrivedAt";
+  private static final String PROXY_REQUEST = "gateway.proxyRequest";
+  private static final String UNROUTED = "unrouted";
+  private static final String BATCH = "/api/batch";
+  private static final int DEFAULT_BATCH_MAX_REQUESTS = 50;
+  private static final String SHARED_STATE = "api.gateway";
+  private static final String SECONDARY = "api.gateway.secondary";
 
-  private JWTAuth jwtAuth;
+  private RoutingTable routingTable;
+  private CachingJWTAuth jwtAuth;
+  private boolean streaming;
+  private ResponseCache responseCache;
+  private RateLimiter rateLimiter;
+  private RequestCoalescer coalescer;
+  private HedgingPolicy hedging;
+  private boolean primary;
+  private LocalMap<String, Shareable> shared;
+  private GatewayMetrics metrics;
+  private BatchDispatcher batchDispatcher;
+  private int batchMaxRequests;
 
   @Override
   public void start(Future<Void> future) throws Exception {
@@ -45,121 +102,686 @@ public class APIGatewayVerticle extends RestAPIVerticle {
     String host = config().getString("api.gateway.http.address", "localhost");
     int port = config().getInteger("api.gateway.http.port", DEFAULT_PORT);
 
-    // Create JWTAuth instance
-    jwtAuth = JWTAuth.create(vertx, new JsonObject()
+    // The first instance creates the state shared by all the instances
+    primary = !config().getBoolean(SECONDARY, false);
+    shared = vertx.sharedData().getLocalMap(SHARED_STATE);
+    if (primary) {
+      metrics = new GatewayMetrics();
+      metrics.start(vertx);
+      shared.put("metrics", metrics);
+    } else {
+      metrics = (GatewayMetrics) shared.get("metrics");
+    }
+
+    routingTable = new RoutingTable(vertx, config());
+    streaming = config().getBoolean("api.gateway.streaming", false);
+    enableResponseCache();
+    enableRateLimiter();
+    JsonObject coalescingConfig = config().getJsonObject("api.gateway.coalescing", new JsonObject());
+    if (coalescingConfig.getBoolean("enabled", false)) {
+      coalescer = new RequestCoalescer(coalescingConfig);
+    }
+    JsonObject hedgingConfig = config().getJsonObject("api.gateway.hedging", new JsonObject());
+    if (hedgingConfig.getBoolean("enabled", false) && !streaming) {
+      enableHedging(hedgingConfig);
+    }
+    JsonObject batchConfig = config().getJsonObject("api.gateway.batch", new JsonObject());
+    batchDispatcher = new BatchDispatcher(routingTable, rateLimiter, batchConfig);
+    batchMaxRequests = batchConfig.getInteger("max.requests", DEFAULT_BATCH_MAX_REQUESTS);
+
+    // Create JWTAuth instance, verified tokens are cached
+    jwtAuth = new CachingJWTAuth(vertx, JWTAuth.create(vertx, new JsonObject()
       .put("keyStore", new JsonObject()
         .put("path", "keystore.jceks")
         .put("type", "jceks")
-        .put("password", "secret")));
+        .put("password", "secret"))),
+      config().getJsonObject("api.gateway.jwt.cache", new JsonObject()));
 
     Router router = Router.router(vertx);
-    enableLocalSession(router);                       // Cookie and session handler
-    router.route().handler(BodyHandler.create());     // Body handler
+    router.route("/api/*").handler(this::startMetrics); // Latency metrics
+    if (streaming) {
+      // API bodies are piped to the backends, hold them until the dispatch
+      router.route("/api/*").handler(this::pauseRequest);
+    }
+    enableSession(router);                            // Cookie and session handler
+    if (streaming) {
+      router.post("/login").handler(BodyHandler.create());
+      router.post(BATCH).handler(BodyHandler.create());
+    } else {
+      router.route().handler(BodyHandler.create());   // Body handler
+    }
     router.get("/api/v").handler(this::apiVersion);   // Version handler
     router.route().handler(JWTAuthHandler.create(jwtAuth, "/login")); // Set auth callback handler
     router.post("/login").handler(this::loginHandler);
     router.post("/logout").handler(this::logoutHandler);
+    router.get("/gateway/resilience").handler(this::resilienceStatus);  // Breakers and bulkheads state
+    router.get("/gateway/cache").handler(this::cacheStatus);            // Response cache state
+    router.get("/gateway/rate-limit").handler(this::rateLimitStatus);   // Rate limiter counters
+    router.get("/gateway/coalescing").handler(this::coalescingStatus);  // Request coalescing counters
+    router.get("/gateway/hedging").handler(this::hedgingStatus);        // Hedged requests and retry budget
+    router.get("/metrics").handler(this::metricsHandler);               // Prometheus metrics
+    router.get("/health*").handler(healthCheckHandler());               // Backends concurrency limits
+    router.post(BATCH).handler(this::batchHandler);                    // Batch dispatcher
     router.route("/api/*").handler(this::dispatchRequests);             // Api dispatcher
-    router.route("/*").handler(StaticHandler.create());                 // Static content
+    router.route("/*").handler(staticHandler());                        // Static content
 
     // Enable HTTPS
     HttpServerOptions httpServerOptions = new HttpServerOptions()
       .setSsl(true)
       .setKeyStoreOptions(new JksOptions().setPath("server.jks").setPassword("secret"));
 
-    // Create http server
-    vertx.createHttpServer(httpServerOptions)
-      .requestHandler(router::accept)
-      .listen(port, host, ar -> {
-        if (ar.succeeded()) {
-          publishApiGateway(host, port);
-          future.complete();
-          logger.info("API Gateway is running on port " + port);
-          // publish log
-          publishGatewayLog("api_gateway_init_success:" + port);
-        } else {
-          future.fail(ar.cause());
-        }
-      });
+    // Enable HTTP/2, negotiated with ALPN
+    JsonObject http2 = config().getJsonObject("api.gateway.http2", new JsonObject());
+    if (http2.getBoolean("enabled", false)) {
+      httpServerOptions
+        .setUseAlpn(true)
+        .setInitialSettings(new Http2Settings()
+          .setMaxConcurrentStreams(http2.getLong("max.concurrent.streams", Http2Settings.DEFAULT_MAX_CONCURRENT_STREAMS)));
+    }
+
+    // Fill the routing table, then create http server
+    loadRoutingTable().compose(loaded -> {
+      Future<Void> listenFuture = Future.future();
+      vertx.createHttpServer(httpServerOptions)
+        .requestHandler(router::accept)
+        .listen(port, host, ar -> {
+          if (ar.succeeded()) {
+            logger.info("API Gateway is running on port " + port);
+            if (primary) {
+              publishApiGateway(host, port);
+              // publish log
+              publishGatewayLog("api_gateway_init_success:" + port);
+            }
+            listenFuture.complete();
+          } else {
+            listenFuture.fail(ar.cause());
+          }
+        });
+      return listenFuture;
+    }).compose(listening -> deployInstances()).setHandler(future.completer());
   }
 
   /**
-   * This method get all endpoints to dispatch request
+   * Deploy the other instances of the gateway from the first one.
+   *
+   * @return Async result
+   */
+  private Future<Void> deployInstances() {
+    int instances = config().getInteger("api.gateway.instances", Runtime.getRuntime().availableProcessors());
+    if (!primary || instances <= 1) {
+      return Future.succeededFuture();
+    }
+    Future<String> future = Future.future();
+    vertx.deployVerticle(APIGatewayVerticle.class.getName(), new DeploymentOptions()
+        .setConfig(config().copy().put(SECONDARY, true))
+        .setInstances(instances - 1),
+      future.completer());
+    return future.map(r -> null);
+  }
+
+  /**
+   * Fill the routing table with the current endpoints and keep it up to date
+   * with the records announced by the service discovery.
+   *
+   * @return Async result
+   */
+  private Future<Void> loadRoutingTable() {
+    String announceAddress = config().getString("discovery.announce.address",
+      ServiceDiscoveryOptions.DEFAULT_ANNOUNCE_ADDRESS);
+
+    // Listen first so no announcement is lost while the records are retrieved
+    vertx.eventBus().<JsonObject>consumer(announceAddress,
+      message -> routingTable.announce(new Record(message.body())));
+
+    return getAllEndpoints().map(records -> {
+      routingTable.load(records);
+      logger.info("Routing table loaded with " + routingTable.size() + " API(s)");
+      return null;
+    });
+  }
+
+  /**
+   * Create the GET response cache if enabled, and evict the resources
+   * announced as modified by the REST services on the invalidation address.
+   */
+  private void enableResponseCache() {
+    JsonObject cacheConfig = config().getJsonObject("api.gateway.cache", new JsonObject());
+    if (!cacheConfig.getBoolean("enabled", false)) {
+      return;
+    }
+
+    responseCache = new ResponseCache(cacheConfig);
+    String invalidationAddress = cacheConfig.getString("invalidation.address", "gateway.cache.invalidate");
+    vertx.eventBus().<JsonObject>consumer(invalidationAddress, message ->
+      responseCache.invalidate(message.body().getString("api.name"), message.body().getString("path")));
+  }
+
+  /**
+   * Enable the sessions: local to this node, or shared by the gateway nodes
+   * through the cluster manager when {@code api.gateway.session.clustered} is set.
+   *
+   * @param router router of the gateway
+   */
+  private void enableSession(Router router) {
+    JsonObject sessionConfig = config().getJsonObject("api.gateway.session", new JsonObject());
+    if (sessionConfig.getBoolean("clustered", false)) {
+      router.route().handler(CookieHandler.create());
+      router.route().handler(SessionHandler.create(new NearCacheSessionStore(vertx, sessionConfig)));
+    } else {
+      enableLocalSession(router);
+    }
+  }
+
+  /**
+   * Create the hedging policy, or get the one created by the first instance: the
+   * retry budget bounds the hedged requests of the whole node.
+   */
+  private void enableHedging(JsonObject hedgingConfig) {
+    if (primary) {
+      hedging = new HedgingPolicy(hedgingConfig);
+      vertx.setPeriodic(hedging.getRefreshPeriod(), id -> hedging.refresh(metrics));
+      shared.put("hedging", hedging);
+    } else {
+      hedging = (HedgingPolicy) shared.get("hedging");
+    }
+  }
+
+  /**
+   * Create the rate limiter if enabled, or get the one created by the first instance.
+   */
+  private void enableRateLimiter() {
+    JsonObject rateLimitConfig = config().getJsonObject("api.gateway.rate.limit", new JsonObject());
+    if (!rateLimitConfig.getBoolean("enabled", false)) {
+      return;
+    }
+    if (primary) {
+      rateLimiter = new RateLimiter(vertx, rateLimitConfig);
+      rateLimiter.start();
+      shared.put("rate.limiter", rateLimiter);
+    } else {
+      rateLimiter = (RateLimiter) shared.get("rate.limiter");
+    }
+  }
+
+  /**
+   * This method looks up the routing table to dispatch request
    * to the matching service.
    *
    * @param context Routing context instance
    */
   private void dispatchRequests(RoutingContext context) {
-    int initialOffset = 5; // length of `/api/`
-    // Run with circuit breaker in order to deal with failure
-    circuitBreaker.execute(future -> {
-      getAllEndpoints().setHandler(ar -> {
-        if (ar.succeeded()) {
-          List<Record> recordList = ar.result();
-          // Get relative path and retrieve prefix to dispatch client
-          String path = context.request().uri();
-          if (path.length() <= initialOffset) {
-            notFound(context);
-            future.complete();
-            return;
-          }
+    // Get relative path and retrieve prefix to dispatch client
+    String path = context.request().uri();
+    if (path.length() <= API_PREFIX_LENGTH) {
+      context.request().resume();
+      notFound(context);
+      return;
+    }
 
-          String prefix = (path.substring(initialOffset).split("/"))[0];
-          String newPath = path.substring(initialOffset + prefix.length());
+    int prefixEnd = RoutingTable.apiNameEnd(path, API_PREFIX_LENGTH);
+    String prefix = path.substring(API_PREFIX_LENGTH, prefixEnd);
+    String newPath = path.substring(prefixEnd);
 
-          // Get one relevant HTTP client, may not exist
-          Optional<Record> client = recordList.stream()
-            .filter(record -> record.getMetadata().getString("api.name") != null)
-            .filter(record -> record.getMetadata().getString("api.name").equals(prefix))
-            .findAny(); // simple load balance
+    // Get the route of the API, may not exist
+    Route route = routingTable.lookup(prefix);
+    if (route == null) {
+      context.request().resume();
+      notFound(context);
+      return;
+    }
 
-          if (client.isPresent()) {
-            doDispatch(context, newPath, discovery.getReference(client.get()).get(), future);
-          } else {
-            notFound(context);
-            future.complete();
-          }
+    long dispatchedAt = System.nanoTime();
+    Long arrivedAt = context.get(ARRIVED_AT);
+    metrics.recordPhase(prefix, Phase.AUTH, dispatchedAt - arrivedAt);
+    boolean idempotent = !streaming && context.request().method() == HttpMethod.GET;
+    ProxyRequest request = new ProxyRequest(context, prefix, newPath)
+      .setCacheable(idempotent && responseCache != null)
+      .setDispatchedAt(dispatchedAt);
+    context.put(PROXY_REQUEST, request);
+
+    // Admission control, per user and per API
+    if (rateLimiter != null) {
+      long wait = rateLimiter.acquire(userKey(context), prefix);
+      if (wait > 0) {
+        context.request().resume();
+        context.response()
+          .setStatusCode(429)
+          .putHeader("retry-after", String.valueOf(TimeUnit.NANOSECONDS.toSeconds(wait) + 1))
+          .end();
+        return;
+      }
+    }
+
+    // Serve idempotent reads from the response cache when possible
+    String cacheControl = context.request().getHeader("cache-control");
+    if (request.isCacheable() && (cacheControl == null || !cacheControl.contains("no-cache"))) {
+      CachedResponse cached = responseCache.get(userKey(context), prefix, newPath);
+      if (cached != null) {
+        sendCached(context, cached);
+        return;
+      }
+    }
+
+    // Wait for an identical read already in flight
+    if (idempotent && coalescer != null && !RequestCoalescer.isConditional(context.request().headers())) {
+      String key = coalescer.key(userKey(context), prefix, newPath);
+      if (coalescer.join(key, context)) {
+        return;
+      }
+      request.setCoalescingKey(key);
+    }
+
+    // Bound the requests in flight to the API, reject fast when the queue is full
+    Bulkhead bulkhead = route.getBulkhead();
+    boolean admitted = bulkhead.execute(v -> {
+      // the routes may have changed while the request was queued
+      Route current = routingTable.lookup(prefix);
+      if (current == null) {
+        bulkhead.release();
+        context.request().resume();
+        notFound(context);
+        land(request, this::notFound);
+        return;
+      }
+      Backend backend = current.select();
+      // Shed the request when the backend is over its adaptive concurrency limit
+      if (!backend.hasCapacity()) {
+        bulkhead.release();
+        context.request().resume();
+        serviceUnavailable(context);
+        land(request, this::serviceUnavailable);
+        return;
+      }
+      // Run with the circuit breaker of the backend in order to deal with failure
+      request.attemptStarted();
+      backend.getCircuitBreaker().execute(future -> {
+        if (streaming) {
+          doStreamingDispatch(request, backend, future);
         } else {
-          future.fail(ar.cause());
+          doDispatch(request, backend, future);
+        }
+      }).setHandler(ar -> {
+        bulkhead.release();
+        if (ar.failed() && request.attemptFailed()) {
+          dispatchFailed(request, ar.cause());
         }
       });
-    }).setHandler(ar -> {
-      if (ar.failed()) {
-        badGateway(ar.cause(), context);
+    });
+    if (!admitted) {
+      context.request().resume();
+      serviceUnavailable(context);
+      land(request, this::serviceUnavailable);
+    }
+  }
+
+  /**
+   * Report the failure of every attempt to send a request to the client and
+   * to the identical requests waiting for it.
+   *
+   * @param request request sent to the backend
+   * @param cause   failure of the last attempt
+   */
+  private void dispatchFailed(ProxyRequest request, Throwable cause) {
+    RoutingContext context = request.getContext();
+    if (!context.response().headWritten() && !context.response().closed()) {
+      context.request().resume();
+      badGateway(cause, context);
+    }
+    land(request, waiter -> badGateway(cause, waiter));
+  }
+
+  /**
+   * Write the outcome of a request to the identical requests waiting for it, if any.
+   *
+   * @param request request sent to the backend
+   * @param action  action writing the response of a waiting request
+   */
+  private void land(ProxyRequest request, Handler<RoutingContext> action) {
+    if (request.getCoalescingKey() != null) {
+      coalescer.land(request.getCoalescingKey(), action);
+    }
+  }
+
+  /**
+   * Return the counters of the request coalescing.
+   *
+   * @param context Routing context instance
+   */
+  private void coalescingStatus(RoutingContext context) {
+    JsonObject status = coalescer == null
+      ? new JsonObject().put("enabled", false)
+      : coalescer.toJson().put("enabled", true);
+    context.response()
+      .putHeader("content-type", "application/json")
+      .end(status.encodePrettily());
+  }
+
+  /**
+   * Return the state of the bulkheads and circuit breakers of every API.
+   *
+   * @param context Routing context instance
+   */
+  private void resilienceStatus(RoutingContext context) {
+    context.response()
+      .putHeader("content-type", "application/json")
+      .end(routingTable.toJson().encodePrettily());
+  }
+
+  /**
+   * Create the static content handler: the Vert.x default one, or the
+   * production one serving precompressed files with cache headers when
+   * {@code api.gateway.static.production} is set.
+   *
+   * @return the static content handler
+   */
+  private Handler<RoutingContext> staticHandler() {
+    JsonObject staticConfig = config().getJsonObject("api.gateway.static", new JsonObject());
+    if (staticConfig.getBoolean("production", false)) {
+      return new StaticAssetHandler(vertx, staticConfig);
+    }
+    return StaticHandler.create();
+  }
+
+  /**
+   * Create the health check handler reporting the adaptive concurrency limit
+   * and the requests in flight of every backend. The gateway is reported down
+   * when no API can be routed.
+   *
+   * @return the health check handler
+   */
+  private HealthCheckHandler healthCheckHandler() {
+    return HealthCheckHandler.create(vertx)
+      .register("backends", future -> {
+        JsonObject routes = routingTable.toJson();
+        future.complete(routingTable.size() > 0 ? Status.OK(routes) : Status.KO(routes));
+      });
+  }
+
+  /**
+   * Identify the user sending a request: the authenticated username, or the
+   * client address when there is none.
+   *
+   * @param context Routing context instance
+   * @return the user key
+   */
+  private String userKey(RoutingContext context) {
+    if (context.user() != null) {
+      String username = context.user().principal().getString("username");
+      if (username != null) {
+        return username;
       }
+    }
+    return context.request().remoteAddress().host();
+  }
+
+  /**
+   * Return the counters of the rate limiter.
+   *
+   * @param context Routing context instance
+   */
+  private void rateLimitStatus(RoutingContext context) {
+    JsonObject status = rateLimiter == null
+      ? new JsonObject().put("enabled", false)
+      : rateLimiter.toJson().put("enabled", true);
+    context.response()
+      .putHeader("content-type", "application/json")
+      .end(status.encodePrettily());
+  }
+
+  /**
+   * Return the counters of the hedged requests and of the retry budget.
+   *
+   * @param context Routing context instance
+   */
+  private void hedgingStatus(RoutingContext context) {
+    JsonObject status = hedging == null
+      ? new JsonObject().put("enabled", false)
+      : hedging.toJson().put("enabled", true);
+    context.response()
+      .putHeader("content-type", "application/json")
+      .end(status.encodePrettily());
+  }
+
+  /**
+   * Send a response received for another request.
+   *
+   * @param context    Routing context instance
+   * @param statusCode status code of the response
+   * @param headers    headers of the response
+   * @param body       body of the response
+   */
+  private void sendResponse(RoutingContext context, int statusCode, MultiMap headers, Buffer body) {
+    HttpServerResponse response = context.response().setStatusCode(statusCode);
+    response.headers().addAll(headers);
+    response.end(body);
+  }
+
+  /**
+   * Send a cached response, or a 304 if the client already has it.
+   *
+   * @param context Routing context instance
+   * @param cached  Cached response
+   */
+  private void sendCached(RoutingContext context, CachedResponse cached) {
+    context.request().resume();
+    HttpServerResponse response = context.response();
+    if (cached.getEtag().equals(context.request().getHeader("if-none-match"))) {
+      response.setStatusCode(304)
+        .putHeader("etag", cached.getEtag())
+        .end();
+      return;
+    }
+    response.setStatusCode(cached.getStatusCode());
+    response.headers().addAll(cached.getHeaders());
+    response.putHeader("age", String.valueOf(cached.age(System.currentTimeMillis())))
+      .end(cached.getBody());
+  }
+
+  /**
+   * Return the size and hit counts of the response cache.
+   *
+   * @param context Routing context instance
+   */
+  private void cacheStatus(RoutingContext context) {
+    JsonObject status = responseCache == null
+      ? new JsonObject().put("enabled", false)
+      : responseCache.toJson().put("enabled", true);
+    context.response()
+      .putHeader("content-type", "application/json")
+      .end(status.encodePrettily());
+  }
+
+  /**
+   * Record the arrival of an API request, and its latency once the response is sent.
+   *
+   * @param context Routing context instance
+   */
+  private void startMetrics(RoutingContext context) {
+    long arrivedAt = System.nanoTime();
+    context.put(ARRIVED_AT, arrivedAt);
+    context.addBodyEndHandler(v -> {
+      ProxyRequest request = context.get(PROXY_REQUEST);
+      metrics.recordRequest(request == null ? UNROUTED : request.getApiName(),
+        context.response().getStatusCode(), System.nanoTime() - arrivedAt);
     });
+    context.next();
+  }
+
+  /**
+   * Return the latency and throughput metrics in the Prometheus text format.
+   *
+   * @param context Routing context instance
+   */
+  private void metricsHandler(RoutingContext context) {
+    context.response()
+      .putHeader("content-type", "text/plain; version=0.0.4")
+      .end(metrics.toPrometheus());
+  }
+
+  /**
+   * Pause the request so its body is not read before it can be piped to the backend.
+   * The request is resumed once its response is sent, whichever handler sent it
+   * (authentication failure, version, not found...), so the connection can
+   * read the next request.
+   *
+   * @param context Routing context instance
+   */
+  private void pauseRequest(RoutingContext context) {
+    if (!BATCH.equals(context.request().path())) {
+      context.request().pause();
+      context.addBodyEndHandler(v -> context.request().resume());
+    }
+    context.next();
   }
 
   /**
-   * Dispatch the request to the downstream REST layers.
+   * Dispatch the sub-requests of a batch request in parallel and return all
+   * their responses, in order, in a single response.
    *
    * @param context Routing context instance
-   * @param path    Relative path
-   * @param client  Relevant HTTP client
    */
-  private void doDispatch(RoutingContext context, String path, HttpClient client, Future<Object> cbFuture) {
-    HttpClientRequest toReq = client
-      .request(context.request().method(), path, response -> {
+  private void batchHandler(RoutingContext context) {
+    JsonObject body;
+    try {
+      body = context.getBodyAsJson();
+    } catch (Exception e) {
+      badRequest(context, "Batch body must be a JSON object");
+      return;
+    }
+    JsonArray requests = body == null ? null : body.getJsonArray("requests");
+    if (requests == null) {
+      badRequest(context, "Batch body must contain a `requests` array");
+      return;
+    }
+    if (requests.size() > batchMaxRequests) {
+      badRequest(context, "Batch must not contain more than " + batchMaxRequests + " requests");
+      return;
+    }
+
+    JsonObject principal = context.user() == null ? null : context.user().principal();
+    batchDispatcher.dispatch(requests, userKey(context), principal, responses ->
+      context.response()
+        .putHeader("content-type", "application/json")
+        .end(new JsonObject().put("responses", responses).encode()));
+  }
+
+  /**
+   * Dispatch the request to the downstream REST layers. An idempotent request
+   * of a hedged API is sent to a second backend when the first one is slower
+   * than the hedging delay, the first response is kept.
+   *
+   * @param request Request to dispatch
+   * @param backend Backend instance serving the request
+   */
+  private void doDispatch(ProxyRequest request, Backend backend, Future<Object> cbFuture) {
+    RoutingContext context = request.getContext();
+    long sentAt = System.nanoTime();
+    request.setSentAt(sentAt);
+    metrics.recordPhase(request.getApiName(), Phase.ROUTING, sentAt - request.getDispatchedAt());
+    send(request, backend, cbFuture, false);
+
+    if (hedging != null && hedging.accepts(request.getApiName(), context.request().method())) {
+      long timer = vertx.setTimer(hedging.delay(request.getApiName()), id -> hedge(request, backend));
+      context.addBodyEndHandler(v -> vertx.cancelTimer(timer));
+    }
+  }
+
+  /**
+   * Send a request still unanswered to a second backend, if the retry budget allows it.
+   *
+   * @param request Request to dispatch
+   * @param first   Backend instance the request was first sent to
+   */
+  private void hedge(ProxyRequest request, Backend first) {
+    RoutingContext context = request.getContext();
+    if (context.response().headWritten() || context.response().closed()) {
+      return;
+    }
+    Route route = routingTable.lookup(request.getApiName());
+    Backend backend = route == null ? null : route.selectOther(first);
+    if (backend == null || !backend.hasSpareCapacity() || !hedging.tryHedge()) {
+      return;
+    }
+    request.attemptStarted();
+    backend.getCircuitBreaker().execute(future -> send(request, backend, future, true))
+      .setHandler(ar -> {
+        if (ar.failed() && request.attemptFailed()) {
+          dispatchFailed(request, ar.cause());
+        }
+      });
+  }
+
+  /**
+   * Send the request to a backend and write its response, unless another
+   * attempt already answered.
+   *
+   * @param request Request to dispatch
+   * @param backend Backend instance serving the request
+   * @param hedged  true if the request is a hedged request
+   */
+  private void send(ProxyRequest request, Backend backend, Future<Object> cbFuture, boolean hedged) {
+    RoutingContext context = request.getContext();
+    long sentAt = System.nanoTime();
+    // The backend client is pooled and kept across requests, only the
+    // outstanding request count is released when the exchange is over,
+    // and the latency of the exchange feeds the adaptive concurrency limit
+    Future<Void> exchange = Future.future();
+    exchange.setHandler(ar -> backend.requestEnded(System.nanoTime() - sentAt, ar.failed()));
+    backend.requestStarted();
+
+    HttpClientRequest toReq = backend.getClient()
+      .request(context.request().method(), request.getPath(), response -> {
+        response.exceptionHandler(t -> {
+          cbFuture.tryFail(t);
+          exchange.tryFail(t);
+        });
         response.bodyHandler(body -> {
+          long answeredAt = System.nanoTime();
+          metrics.recordPhase(request.getApiName(), Phase.BACKEND, answeredAt - sentAt);
           if (response.statusCode() >= 500) { // api endpoint server error, circuit breaker should fail
-            cbFuture.fail(response.statusCode() + ": " + body.toString());
+            cbFuture.tryFail(response.statusCode() + ": " + body.toString());
+            exchange.tryFail("Server error " + response.statusCode());
+          } else if (context.response().ended()) {
+            // another attempt already answered
+            cbFuture.tryComplete();
           } else {
+            if (hedged) {
+              hedging.hedgeWon();
+            }
             HttpServerResponse toRsp = context.response()
               .setStatusCode(response.statusCode());
-            response.headers().forEach(header -> {
-              toRsp.putHeader(header.getKey(), header.getValue());
-            });
+            HopByHopHeaders.copy(response.headers(), toRsp.headers());
+            if (request.isCacheable()) {
+              CachedResponse cached = responseCache.put(userKey(request.getContext()), request.getApiName(),
+                request.getPath(), response.statusCode(), toRsp.headers(), body);
+              if (cached != null) {
+                toRsp.putHeader("etag", cached.getEtag());
+              }
+            }
+            // the headers added to this response by the gateway, such as the session cookie, are not shared
+            MultiMap waiterHeaders = null;
+            if (request.getCoalescingKey() != null) {
+              waiterHeaders = RequestCoalescer.waiterHeaders(response.headers());
+              if (toRsp.headers().contains("etag")) {
+                waiterHeaders.set("etag", toRsp.headers().get("etag"));
+              }
+            }
             // send response
             toRsp.end(body);
-            cbFuture.complete();
+            metrics.recordPhase(request.getApiName(), Phase.WRITE, System.nanoTime() - answeredAt);
+            cbFuture.tryComplete();
+            MultiMap headers = waiterHeaders;
+            land(request, waiter -> sendResponse(waiter, response.statusCode(), headers, body));
           }
-          ServiceDiscovery.releaseServiceObject(discovery, client);
+          exchange.tryComplete();
         });
       });
-    // set headers
-    context.request().headers().forEach(header -> {
-      toReq.putHeader(header.getKey(), header.getValue());
+    toReq.exceptionHandler(t -> {
+      cbFuture.tryFail(t);
+      exchange.tryFail(t);
     });
+    // set headers
+    HopByHopHeaders.copy(context.request().headers(), toReq.headers());
     if (context.user() != null) {
       toReq.putHeader("user-principal", context.user().principal().encode());
     }
@@ -171,6 +793,85 @@ public class APIGatewayVerticle extends RestAPIVerticle {
     }
   }
 
+  /**
+   * Dispatch the request to the downstream REST layers without buffering the bodies:
+   * the request is piped to the backend and the backend response is piped back
+   * to the client, both with back pressure.
+   *
+   * @param proxyRequest Request to dispatch
+   * @param backend      Backend instance serving the request
+   */
+  private void doStreamingDispatch(ProxyRequest proxyRequest, Backend backend, Future<Object> cbFuture) {
+    RoutingContext context = proxyRequest.getContext();
+    HttpServerRequest request = context.request();
+    String apiName = proxyRequest.getApiName();
+    long sentAt = System.nanoTime();
+    proxyRequest.setSentAt(sentAt);
+    metrics.recordPhase(apiName, Phase.ROUTING, sentAt - proxyRequest.getDispatchedAt());
+    Future<Void> exchange = Future.future();
+    exchange.setHandler(ar -> backend.requestEnded(System.nanoTime() - sentAt, ar.failed()));
+    backend.requestStarted();
+
+    HttpClientRequest toReq = backend.getClient()
+      .request(request.method(), proxyRequest.getPath(), response -> {
+        long answeredAt = System.nanoTime();
+        metrics.recordPhase(apiName, Phase.BACKEND, answeredAt - sentAt);
+        response.exceptionHandler(t -> {
+          cbFuture.tryFail(t);
+          exchange.tryFail(t);
+        });
+        if (response.statusCode() >= 500) { // api endpoint server error, circuit breaker should fail
+          response.bodyHandler(body -> {
+            cbFuture.tryFail(response.statusCode() + ": " + body.toString());
+            exchange.tryFail("Server error " + response.statusCode());
+          });
+          return;
+        }
+
+        // the backend answered, a long body must not count as a circuit breaker timeout
+        cbFuture.tryComplete();
+        HttpServerResponse toRsp = context.response()
+          .setStatusCode(response.statusCode());
+        HopByHopHeaders.copy(response.headers(), toRsp.headers());
+        if (!toRsp.headers().contains(HttpHeaders.CONTENT_LENGTH)) {
+          toRsp.setChunked(true);
+        }
+        Pump.pump(response, toRsp).start();
+        response.endHandler(v -> {
+          toRsp.end();
+          metrics.recordPhase(apiName, Phase.WRITE, System.nanoTime() - answeredAt);
+          exchange.tryComplete();
+        });
+      });
+    toReq.exceptionHandler(t -> {
+      cbFuture.tryFail(t);
+      exchange.tryFail(t);
+    });
+    // abort the backend exchange if the client goes away
+    context.response().closeHandler(v -> {
+      toReq.reset();
+      cbFuture.tryComplete();
+      exchange.tryComplete();
+    });
+
+    // set headers
+    HopByHopHeaders.copy(request.headers(), toReq.headers());
+    if (request.headers().contains(HttpHeaders.TRANSFER_ENCODING)) {
+      toReq.setChunked(true);
+    }
+    if (context.user() != null) {
+      toReq.putHeader("user-principal", context.user().principal().encode());
+    }
+    // pipe request
+    if (request.isEnded()) {
+      toReq.end();
+    } else {
+      Pump.pump(request, toReq).start();
+      request.endHandler(v -> toReq.end());
+      request.resume();
+    }
+  }
+
   /**
    * Return the current API version (which is v1)
    *
@@ -209,11 +910,15 @@ public class APIGatewayVerticle extends RestAPIVerticle {
   }
 
   /**
-   * Clear user and destroy session
+   * Revoke the token, clear user and destroy session
    *
    * @param context Routing context instance
    */
   private void logoutHandler(RoutingContext context) {
+    String authorization = context.request().getHeader(HttpHeaders.AUTHORIZATION);
+    if (context.user() != null && authorization != null && authorization.startsWith("Bearer ")) {
+      jwtAuth.revoke(authorization.substring(7), context.user().principal());
+    }
     context.clearUser();
     context.session().destroy();
     context.response().setStatusCode(204).end();
@@ -0,0 +1,233 @@
+package com.fbellotti.microservice.gateway.assets;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.FileProps;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.http.impl.MimeMapping;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.impl.Utils;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Production static content handler. The files of the web root are expected
+ * to be read only while the gateway runs, so their metadata are read once and
+ * kept in memory, as well as the content of the small files. Larger files are
+ * sent with {@link HttpServerResponse#sendFile(String)}, which uses zero-copy
+ * transfers when the connection allows it.
+ *
+ * A precompressed {@code .br} or {@code .gz} variant of a file is sent instead of
+ * the file when the client accepts its encoding. Fingerprinted files (whose name
+ * contains a content hash) are cached by the clients for a year, the others
+ * must be revalidated with their {@code etag}.
+ *
+ * The missing files are remembered for a short time in a separate, smaller map:
+ * their path comes from the client, so caching them with the files would let
+ * random urls evict the files in use.
+ *
+ * This class is not thread safe, it must only be used from the gateway context.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class StaticAssetHandler implements Handler<RoutingContext> {
+
+  private static final String DEFAULT_WEB_ROOT = "webroot";
+  private static final String DEFAULT_INDEX_PAGE = "index.html";
+  private static final String DEFAULT_FINGERPRINT_PATTERN = ".*[.-][0-9a-fA-F]{8,}\\.[^./]+";
+  private static final long DEFAULT_MAX_AGE = 365L * 24 * 3600;
+  private static final int DEFAULT_MAX_ENTRIES = 10000;
+  private static final int DEFAULT_MAX_MEMORY_FILE_SIZE = 16 * 1024;
+  private static final int DEFAULT_MAX_MISSING_ENTRIES = 1000;
+  private static final long DEFAULT_MISSING_TTL = 5000;
+  private static final String[][] ENCODINGS = {{"br", ".br"}, {"gzip", ".gz"}};
+
+  private final Vertx vertx;
+  private final String webRoot;
+  private final String indexPage;
+  private final Pattern fingerprint;
+  private final String immutableCacheControl;
+  private final int maxMemoryFileSize;
+  private final boolean precompressed;
+  private final long missingTtl;
+  private final Map<String, Asset> assets;
+  private final Map<String, Long> missing;
+
+  public StaticAssetHandler(Vertx vertx, JsonObject config) {
+    this.vertx = vertx;
+    this.webRoot = config.getString("web.root", DEFAULT_WEB_ROOT);
+    this.indexPage = config.getString("index.page", DEFAULT_INDEX_PAGE);
+    this.fingerprint = Pattern.compile(config.getString("fingerprint.pattern", DEFAULT_FINGERPRINT_PATTERN));
+    this.immutableCacheControl = "public, max-age=" + config.getLong("max.age", DEFAULT_MAX_AGE) + ", immutable";
+    this.maxMemoryFileSize = config.getInteger("max.memory.file.size", DEFAULT_MAX_MEMORY_FILE_SIZE);
+    this.precompressed = config.getBoolean("precompressed", true);
+    this.missingTtl = config.getLong("missing.ttl", DEFAULT_MISSING_TTL);
+    int maxEntries = config.getInteger("max.entries", DEFAULT_MAX_ENTRIES);
+    this.assets = new LinkedHashMap<String, Asset>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Asset> eldest) {
+        return size() > maxEntries;
+      }
+    };
+    // in insertion order, the eldest missing file is also the first to expire
+    int maxMissingEntries = config.getInteger("max.missing.entries", DEFAULT_MAX_MISSING_ENTRIES);
+    this.missing = new LinkedHashMap<String, Long>() {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+        return size() > maxMissingEntries;
+      }
+    };
+  }
+
+  @Override
+  public void handle(RoutingContext context) {
+    HttpServerRequest request = context.request();
+    if (request.method() != HttpMethod.GET && request.method() != HttpMethod.HEAD) {
+      context.next();
+      return;
+    }
+    String path = Utils.removeDots(Utils.urlDecode(context.normalisedPath(), false));
+    if (path == null) {
+      context.next();
+      return;
+    }
+    if (path.endsWith("/")) {
+      path += indexPage;
+    }
+    String file = webRoot + path;
+    String contentType = MimeMapping.getMimeTypeForFilename(file);
+    String cacheControl = fingerprint.matcher(path).matches() ? immutableCacheControl : "no-cache";
+    String acceptEncoding = precompressed ? request.getHeader(HttpHeaders.ACCEPT_ENCODING) : null;
+    serve(context, file, contentType, cacheControl, acceptEncoding, 0);
+  }
+
+  /**
+   * Send the first existing variant of a file, trying the precompressed variants
+   * accepted by the client first.
+   *
+   * @param encoding index of the next encoding to try in {@link #ENCODINGS}
+   */
+  private void serve(RoutingContext context, String file, String contentType, String cacheControl,
+                     String acceptEncoding, int encoding) {
+    while (encoding < ENCODINGS.length && (acceptEncoding == null || !acceptEncoding.contains(ENCODINGS[encoding][0]))) {
+      encoding++;
+    }
+    int current = encoding;
+    String variant = current < ENCODINGS.length ? file + ENCODINGS[current][1] : file;
+    asset(variant, asset -> {
+      if (asset != null) {
+        send(context, asset, contentType, cacheControl, current < ENCODINGS.length ? ENCODINGS[current][0] : null);
+      } else if (current < ENCODINGS.length) {
+        serve(context, file, contentType, cacheControl, acceptEncoding, current + 1);
+      } else {
+        context.next();
+      }
+    });
+  }
+
+  /**
+   * Get the metadata of a file, from memory or from the file system.
+   *
+   * @param file    path of the file
+   * @param handler called with the asset, or {@code null} if the file does not exist
+   */
+  private void asset(String file, Handler<Asset> handler) {
+    Asset asset = assets.get(file);
+    if (asset != null) {
+      handler.handle(asset);
+      return;
+    }
+    Long missingUntil = missing.get(file);
+    if (missingUntil != null) {
+      if (missingUntil > System.currentTimeMillis()) {
+        handler.handle(null);
+        return;
+      }
+      missing.remove(file);
+    }
+    vertx.fileSystem().props(file, ar -> {
+      if (ar.failed() || !ar.result().isRegularFile()) {
+        if (missingTtl > 0) {
+          missing.put(file, System.currentTimeMillis() + missingTtl);
+        }
+        handler.handle(null);
+        return;
+      }
+      FileProps props = ar.result();
+      if (props.size() > maxMemoryFileSize) {
+        handler.handle(cache(new Asset(file, props, null)));
+        return;
+      }
+      vertx.fileSystem().readFile(file, read -> {
+        if (read.failed()) {
+          handler.handle(null);
+        } else {
+          handler.handle(cache(new Asset(file, props, read.result())));
+        }
+      });
+    });
+  }
+
+  private Asset cache(Asset asset) {
+    assets.put(asset.file, asset);
+    return asset;
+  }
+
+  private void send(RoutingContext context, Asset asset, String contentType, String cacheControl, String encoding) {
+    HttpServerRequest request = context.request();
+    HttpServerResponse response = context.response();
+    response.putHeader(HttpHeaders.CACHE_CONTROL, cacheControl)
+      .putHeader(HttpHeaders.ETAG, asset.etag)
+      .putHeader(HttpHeaders.LAST_MODIFIED, asset.lastModified)
+      .putHeader("vary", HttpHeaders.ACCEPT_ENCODING);
+    if (asset.etag.equals(request.getHeader(HttpHeaders.IF_NONE_MATCH))) {
+      response.setStatusCode(304).end();
+      return;
+    }
+    if (contentType != null) {
+      response.putHeader(HttpHeaders.CONTENT_TYPE, contentType);
+    }
+    if (encoding != null) {
+      response.putHeader(HttpHeaders.CONTENT_ENCODING, encoding);
+    }
+    if (request.method() == HttpMethod.HEAD) {
+      response.putHeader(HttpHeaders.CONTENT_LENGTH, String.valueOf(asset.size)).end();
+    } else if (asset.content != null) {
+      response.end(asset.content);
+    } else {
+      response.sendFile(asset.file);
+    }
+  }
+
+  /**
+   * A file of the web root, with its content when it is small enough to be kept in memory.
+   */
+  private static final class Asset {
+
+    private final String file;
+    private final long size;
+    private final String etag;
+    private final String lastModified;
+    private final Buffer content;
+
+    private Asset(String file, FileProps props, Buffer content) {
+      this.file = file;
+      this.size = props.size();
+      this.etag = "W/\"" + Long.toHexString(props.size()) + "-" + Long.toHexString(props.lastModifiedTime()) + "\"";
+      this.lastModified = DateTimeFormatter.RFC_1123_DATE_TIME.format(
+        ZonedDateTime.ofInstant(Instant.ofEpochMilli(props.lastModifiedTime()), ZoneOffset.UTC));
+      this.content = content;
+    }
+  }
+}
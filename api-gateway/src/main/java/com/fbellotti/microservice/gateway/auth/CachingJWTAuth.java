@@ -0,0 +1,155 @@
+package com.fbellotti.microservice.gateway.auth;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.auth.User;
+import io.vertx.ext.auth.jwt.JWTAuth;
+import io.vertx.ext.auth.jwt.JWTOptions;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link JWTAuth} keeping the users of the already verified tokens, so the
+ * signature and claims of a token are only checked the first time it is seen.
+ * Entries are keyed by a SHA-256 hash of the token and expire with its
+ * {@code exp} claim, and at most {@code max.ttl} milliseconds. Revoked tokens
+ * are rejected until they expire, revocations are published on the event bus
+ * so every gateway instance rejects them.
+ *
+ * This class is not thread safe, it must only be used from the gateway context.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class CachingJWTAuth implements JWTAuth {
+
+  private static final int DEFAULT_MAX_ENTRIES = 10000;
+  private static final long DEFAULT_MAX_TTL = 5 * 60 * 1000;
+  private static final String DEFAULT_REVOCATION_ADDRESS = "api.gateway.jwt.revoke";
+
+  private final JWTAuth delegate;
+  private final long maxTtl;
+  private final Map<String, Entry> verified;
+  private final Map<String, Long> revoked;
+  private final Vertx vertx;
+  private final String revocationAddress;
+
+  public CachingJWTAuth(Vertx vertx, JWTAuth delegate, JsonObject config) {
+    this.vertx = vertx;
+    this.delegate = delegate;
+    this.maxTtl = config.getLong("max.ttl", DEFAULT_MAX_TTL);
+    this.revocationAddress = config.getString("revocation.address", DEFAULT_REVOCATION_ADDRESS);
+    int maxEntries = config.getInteger("max.entries", DEFAULT_MAX_ENTRIES);
+    this.verified = lruMap(maxEntries);
+    this.revoked = lruMap(maxEntries);
+
+    vertx.eventBus().<JsonObject>consumer(revocationAddress, message ->
+      revoke(message.body().getString("key"), message.body().getLong("until")));
+  }
+
+  @Override
+  public void authenticate(JsonObject authInfo, Handler<AsyncResult<User>> resultHandler) {
+    String token = authInfo.getString("jwt");
+    if (token == null) {
+      delegate.authenticate(authInfo, resultHandler);
+      return;
+    }
+
+    long now = System.currentTimeMillis();
+    String key = hash(token);
+    Long revokedUntil = revoked.get(key);
+    if (revokedUntil != null) {
+      if (revokedUntil > now) {
+        resultHandler.handle(Future.failedFuture("Token revoked"));
+        return;
+      }
+      revoked.remove(key);
+    }
+
+    Entry entry = verified.get(key);
+    if (entry != null) {
+      if (entry.expiresAt > now) {
+        resultHandler.handle(Future.succeededFuture(entry.user));
+        return;
+      }
+      verified.remove(key);
+    }
+
+    delegate.authenticate(authInfo, ar -> {
+      if (ar.succeeded()) {
+        verified.put(key, new Entry(ar.result(), expiresAt(ar.result().principal(), System.currentTimeMillis())));
+      }
+      resultHandler.handle(ar);
+    });
+  }
+
+  @Override
+  public String generateToken(JsonObject claims, JWTOptions options) {
+    return delegate.generateToken(claims, options);
+  }
+
+  /**
+   * Revoke a verified token, it is rejected until it expires. A token without
+   * {@code exp} claim stays revoked as long as it is kept in the bounded revocation list.
+   *
+   * @param token     encoded token
+   * @param principal claims of the token
+   */
+  public void revoke(String token, JsonObject principal) {
+    String key = hash(token);
+    Long exp = principal.getLong("exp");
+    long until = exp == null ? Long.MAX_VALUE : exp * 1000;
+    revoke(key, until);
+    vertx.eventBus().publish(revocationAddress, new JsonObject().put("key", key).put("until", until));
+  }
+
+  private void revoke(String key, long until) {
+    verified.remove(key);
+    revoked.put(key, until);
+  }
+
+  /**
+   * A cached user is kept until the token expires, and at most {@code max.ttl} milliseconds.
+   */
+  private long expiresAt(JsonObject principal, long now) {
+    Long exp = principal.getLong("exp");
+    long limit = now + maxTtl;
+    return exp == null ? limit : Math.min(exp * 1000, limit);
+  }
+
+  private static String hash(String token) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      return Base64.getEncoder().encodeToString(digest.digest(token.getBytes(StandardCharsets.US_ASCII)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static <V> Map<String, V> lruMap(int maxEntries) {
+    return new LinkedHashMap<String, V>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  private static final class Entry {
+
+    private final User user;
+    private final long expiresAt;
+
+    private Entry(User user, long expiresAt) {
+      this.user = user;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -0,0 +1,25 @@
+package com.fbellotti.microservice.gateway.balancing;
+
+import com.fbellotti.microservice.gateway.routing.Backend;
+
+import java.util.List;
+
+/**
+ * Choose the backend with the fewest outstanding requests.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class LeastOutstandingLoadBalancer implements LoadBalancer {
+
+  @Override
+  public Backend select(List<Backend> backends) {
+    Backend best = backends.get(0);
+    for (int i = 1; i < backends.size(); i++) {
+      Backend backend = backends.get(i);
+      if (backend.getOutstanding() < best.getOutstanding()) {
+        best = backend;
+      }
+    }
+    return best;
+  }
+}
@@ -0,0 +1,45 @@
+package com.fbellotti.microservice.gateway.balancing;
+
+import com.fbellotti.microservice.gateway.routing.Backend;
+
+import java.util.List;
+
+/**
+ * A strategy choosing the backend instance which serves a request.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public interface LoadBalancer {
+
+  String ROUND_ROBIN = "round-robin";
+  String LEAST_OUTSTANDING = "least-outstanding";
+  String POWER_OF_TWO_CHOICES = "power-of-two-choices";
+
+  /**
+   * Choose a backend.
+   *
+   * @param backends available backends, never empty
+   * @return the chosen backend
+   */
+  Backend select(List<Backend> backends);
+
+  /**
+   * Create a load balancer from its strategy name.
+   *
+   * @param strategy one of {@link #ROUND_ROBIN}, {@link #LEAST_OUTSTANDING}
+   *                 or {@link #POWER_OF_TWO_CHOICES}
+   * @return a new load balancer
+   */
+  static LoadBalancer create(String strategy) {
+    switch (strategy) {
+      case ROUND_ROBIN:
+        return new RoundRobinLoadBalancer();
+      case LEAST_OUTSTANDING:
+        return new LeastOutstandingLoadBalancer();
+      case POWER_OF_TWO_CHOICES:
+        return new PowerOfTwoChoicesLoadBalancer();
+      default:
+        throw new IllegalArgumentException("Unknown load balancing strategy: " + strategy);
+    }
+  }
+}
@@ -0,0 +1,33 @@
+package com.fbellotti.microservice.gateway.balancing;
+
+import com.fbellotti.microservice.gateway.routing.Backend;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Pick two backends at random and choose the one with the fewest
+ * outstanding requests.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class PowerOfTwoChoicesLoadBalancer implements LoadBalancer {
+
+  @Override
+  public Backend select(List<Backend> backends) {
+    int size = backends.size();
+    if (size == 1) {
+      return backends.get(0);
+    }
+
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int first = random.nextInt(size);
+    int second = random.nextInt(size - 1);
+    if (second >= first) {
+      second++;
+    }
+    Backend a = backends.get(first);
+    Backend b = backends.get(second);
+    return a.getOutstanding() <= b.getOutstanding() ? a : b;
+  }
+}
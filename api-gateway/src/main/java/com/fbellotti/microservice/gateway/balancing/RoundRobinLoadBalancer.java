@@ -0,0 +1,23 @@
+package com.fbellotti.microservice.gateway.balancing;
+
+import com.fbellotti.microservice.gateway.routing.Backend;
+
+import java.util.List;
+
+/**
+ * Choose the backends one after the other.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class RoundRobinLoadBalancer implements LoadBalancer {
+
+  private int next;
+
+  @Override
+  public Backend select(List<Backend> backends) {
+    if (next >= backends.size()) {
+      next = 0;
+    }
+    return backends.get(next++);
+  }
+}
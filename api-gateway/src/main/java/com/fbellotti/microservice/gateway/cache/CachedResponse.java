@@ -0,0 +1,56 @@
+package com.fbellotti.microservice.gateway.cache;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * A backend response kept in the gateway response cache.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class CachedResponse {
+
+  private final int statusCode;
+  private final MultiMap headers;
+  private final Buffer body;
+  private final String etag;
+  private final long createdAt;
+  private final long expiresAt;
+
+  CachedResponse(int statusCode, MultiMap headers, Buffer body, String etag, long createdAt, long expiresAt) {
+    this.statusCode = statusCode;
+    this.headers = headers;
+    this.body = body;
+    this.etag = etag;
+    this.createdAt = createdAt;
+    this.expiresAt = expiresAt;
+  }
+
+  public int getStatusCode() {
+    return statusCode;
+  }
+
+  public MultiMap getHeaders() {
+    return headers;
+  }
+
+  public Buffer getBody() {
+    return body;
+  }
+
+  public String getEtag() {
+    return etag;
+  }
+
+  /**
+   * @param now current time in milliseconds
+   * @return the age of the response in seconds
+   */
+  public long age(long now) {
+    return (now - createdAt) / 1000;
+  }
+
+  boolean isExpired(long now) {
+    return now >= expiresAt;
+  }
+}
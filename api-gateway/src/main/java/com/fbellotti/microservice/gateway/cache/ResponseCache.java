@@ -0,0 +1,205 @@
+package com.fbellotti.microservice.gateway.cache;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * A bounded LRU cache of the backend responses to GET requests, keyed by user,
+ * {@code api.name} and relative uri: the backends answer per user, so a response
+ * is only served to the user it was sent to, unless the API is listed in
+ * {@code shared.apis}. The time to live of an entry comes from the {@code max-age}
+ * of the backend response, or from the TTL configured for the API. Responses
+ * marked {@code no-store} or {@code private}, or varying on request headers
+ * ({@code vary}), are never kept. The keys are also indexed by resource, the
+ * {@code api.name} and the path without query string, so a resource is
+ * invalidated without going through the whole cache.
+ *
+ * This class is not thread safe, it must only be used from the gateway context.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class ResponseCache {
+
+  private static final int DEFAULT_MAX_ENTRIES = 10000;
+  private static final int DEFAULT_MAX_ENTRY_SIZE = 64 * 1024;
+  // separates the user from the resource in a key, it can not appear in a request uri
+  private static final char SEPARATOR = '\u0000';
+
+  private final int maxEntries;
+  private final int maxEntrySize;
+  private final JsonObject ttls;
+  private final JsonArray sharedApis;
+  private final Map<String, CachedResponse> entries;
+  private final Map<String, Set<String>> resources = new HashMap<>();
+  private long hits;
+  private long misses;
+
+  public ResponseCache(JsonObject config) {
+    this.maxEntries = config.getInteger("max.entries", DEFAULT_MAX_ENTRIES);
+    this.maxEntrySize = config.getInteger("max.entry.size", DEFAULT_MAX_ENTRY_SIZE);
+    this.ttls = config.getJsonObject("ttl", new JsonObject());
+    this.sharedApis = config.getJsonArray("shared.apis", new JsonArray());
+    this.entries = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+        if (size() > maxEntries) {
+          unindex(eldest.getKey());
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Get a fresh cached response.
+   *
+   * @param user    user sending the request
+   * @param apiName name of the API
+   * @param path    relative uri of the request
+   * @return the response, or {@code null} if there is no fresh entry
+   */
+  public CachedResponse get(String user, String apiName, String path) {
+    String key = key(user, apiName, path);
+    CachedResponse response = entries.get(key);
+    if (response != null && response.isExpired(System.currentTimeMillis())) {
+      entries.remove(key);
+      unindex(key);
+      response = null;
+    }
+    if (response == null) {
+      misses++;
+    } else {
+      hits++;
+    }
+    return response;
+  }
+
+  /**
+   * Keep a backend response if it is cacheable.
+   *
+   * @param user       user who sent the request
+   * @param apiName    name of the API
+   * @param path       relative uri of the request
+   * @param statusCode status code of the response
+   * @param headers    headers of the response, already filtered
+   * @param body       body of the response
+   * @return the cached response, or {@code null} if it is not cacheable
+   */
+  public CachedResponse put(String user, String apiName, String path, int statusCode, MultiMap headers,
+                            Buffer body) {
+    if (statusCode != 200 || body.length() > maxEntrySize || headers.contains("vary")) {
+      return null;
+    }
+
+    long ttl = ttl(apiName, headers.get("cache-control"));
+    if (ttl <= 0) {
+      return null;
+    }
+
+    String etag = headers.get("etag");
+    if (etag == null) {
+      etag = etag(body);
+    }
+    MultiMap copy = MultiMap.caseInsensitiveMultiMap().addAll(headers).set("etag", etag);
+    long now = System.currentTimeMillis();
+    CachedResponse response = new CachedResponse(statusCode, copy, body.copy(), etag, now, now + ttl);
+    String key = key(user, apiName, path);
+    entries.put(key, response);
+    resources.computeIfAbsent(resource(key), k -> new HashSet<>()).add(key);
+    return response;
+  }
+
+  /**
+   * Remove the cached responses of a resource for every user, with or without
+   * query string.
+   *
+   * @param apiName name of the API
+   * @param path    relative path of the resource
+   */
+  public void invalidate(String apiName, String path) {
+    Set<String> keys = resources.remove(apiName + path);
+    if (keys != null) {
+      keys.forEach(entries::remove);
+    }
+  }
+
+  /**
+   * @return the number of indexed resources
+   */
+  int resources() {
+    return resources.size();
+  }
+
+  public JsonObject toJson() {
+    return new JsonObject()
+      .put("entries", entries.size())
+      .put("maxEntries", maxEntries)
+      .put("hits", hits)
+      .put("misses", misses);
+  }
+
+  /**
+   * @return the time to live in milliseconds, 0 if the response must not be cached
+   */
+  private long ttl(String apiName, String cacheControl) {
+    if (cacheControl != null) {
+      String directives = cacheControl.toLowerCase();
+      if (directives.contains("no-store") || directives.contains("private") || directives.contains("no-cache")) {
+        return 0;
+      }
+      int maxAge = directives.indexOf("max-age=");
+      if (maxAge >= 0) {
+        int start = maxAge + 8;
+        int end = start;
+        while (end < directives.length() && Character.isDigit(directives.charAt(end))) {
+          end++;
+        }
+        if (end > start) {
+          return Long.parseLong(directives.substring(start, end)) * 1000;
+        }
+      }
+    }
+    return ttls.getLong(apiName, ttls.getLong("default", 0L));
+  }
+
+  /**
+   * Build the key of a response. The user is part of the key, unless the responses
+   * of the API are the same for every user.
+   */
+  private String key(String user, String apiName, String path) {
+    return (sharedApis.contains(apiName) ? "" : user) + SEPARATOR + apiName + path;
+  }
+
+  /**
+   * @return the resource of a key, its {@code api.name} and its path without query string
+   */
+  private static String resource(String key) {
+    int start = key.lastIndexOf(SEPARATOR) + 1;
+    int query = key.indexOf('?', start);
+    return key.substring(start, query < 0 ? key.length() : query);
+  }
+
+  private void unindex(String key) {
+    String resource = resource(key);
+    Set<String> keys = resources.get(resource);
+    if (keys != null && keys.remove(key) && keys.isEmpty()) {
+      resources.remove(resource);
+    }
+  }
+
+  private static String etag(Buffer body) {
+    CRC32 crc = new CRC32();
+    crc.update(body.getBytes());
+    return "W/\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(body.length()) + "\"";
+  }
+}
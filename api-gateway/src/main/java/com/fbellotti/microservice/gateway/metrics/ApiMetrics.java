@@ -0,0 +1,70 @@
+package com.fbellotti.microservice.gateway.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The latency histograms of an API: one for the whole request per status class,
+ * and one per dispatch phase.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class ApiMetrics {
+
+  static final String[] STATUS_CLASSES = {"1xx", "2xx", "3xx", "4xx", "5xx"};
+
+  private final LatencyHistogram[] requests = new LatencyHistogram[STATUS_CLASSES.length];
+  private final LatencyHistogram[] phases = new LatencyHistogram[Phase.values().length];
+  private final AtomicLong lastCount = new AtomicLong();
+  private volatile double rate;
+
+  ApiMetrics() {
+    for (int i = 0; i < requests.length; i++) {
+      requests[i] = new LatencyHistogram();
+    }
+    for (int i = 0; i < phases.length; i++) {
+      phases[i] = new LatencyHistogram();
+    }
+  }
+
+  void recordRequest(int statusCode, long nanos) {
+    int statusClass = Math.min(Math.max(statusCode / 100 - 1, 0), STATUS_CLASSES.length - 1);
+    requests[statusClass].record(nanos);
+  }
+
+  void recordPhase(Phase phase, long nanos) {
+    phases[phase.ordinal()].record(nanos);
+  }
+
+  LatencyHistogram requests(int statusClass) {
+    return requests[statusClass];
+  }
+
+  LatencyHistogram phase(Phase phase) {
+    return phases[phase.ordinal()];
+  }
+
+  /**
+   * @return the request rate per second, smoothed over about a minute
+   */
+  double rate() {
+    return rate;
+  }
+
+  /**
+   * Update the request rate with the requests recorded since the previous tick.
+   *
+   * @param alpha   smoothing factor
+   * @param seconds time since the previous tick
+   */
+  void tick(double alpha, double seconds) {
+    for (LatencyHistogram histogram : phases) {
+      histogram.rotate();
+    }
+    long count = 0;
+    for (LatencyHistogram histogram : requests) {
+      count += histogram.count();
+    }
+    double instantRate = (count - lastCount.getAndSet(count)) / seconds;
+    rate += alpha * (instantRate - rate);
+  }
+}
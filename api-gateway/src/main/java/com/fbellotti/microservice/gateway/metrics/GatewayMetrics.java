@@ -0,0 +1,125 @@
+package com.fbellotti.microservice.gateway.metrics;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latency and throughput metrics of the API gateway, per {@code api.name},
+ * rendered in the Prometheus text exposition format. Recording is lock-free,
+ * so a single instance is shared by all the gateway verticle instances.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class GatewayMetrics implements Shareable {
+
+  private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+  private static final long TICK_PERIOD = 5000;
+  // the recent percentiles cover the last 6 ticks
+  public static final long RECENT_WINDOW = 6 * TICK_PERIOD;
+  // smoothing factor of a one minute exponentially weighted moving average
+  private static final double ALPHA = 1 - Math.exp(-TICK_PERIOD / 60000.0);
+
+  private final Map<String, ApiMetrics> apis = new ConcurrentHashMap<>();
+
+  /**
+   * Start the periodic update of the request rates and of the recent latency windows.
+   *
+   * @param vertx Vert.x instance
+   */
+  public void start(Vertx vertx) {
+    vertx.setPeriodic(TICK_PERIOD, id -> apis.values().forEach(api -> api.tick(ALPHA, TICK_PERIOD / 1000.0)));
+  }
+
+  /**
+   * Record a request.
+   *
+   * @param apiName    name of the API
+   * @param statusCode status code of the response
+   * @param nanos      latency in nanoseconds
+   */
+  public void recordRequest(String apiName, int statusCode, long nanos) {
+    api(apiName).recordRequest(statusCode, nanos);
+  }
+
+  /**
+   * Record a phase of a request.
+   *
+   * @param apiName name of the API
+   * @param phase   phase of the request
+   * @param nanos   duration in nanoseconds
+   */
+  public void recordPhase(String apiName, Phase phase, long nanos) {
+    api(apiName).recordPhase(phase, nanos);
+  }
+
+  /**
+   * Get a percentile of the duration of a phase over the last {@link #RECENT_WINDOW} milliseconds.
+   * Each call scans the histogram, it is meant to be called periodically, not per request.
+   *
+   * @param apiName  name of the API
+   * @param phase    phase of the requests
+   * @param quantile quantile, between 0 and 1
+   * @param minCount minimum number of requests in the window
+   * @return the duration in microseconds, or -1 if less than {@code minCount} requests were recorded
+   */
+  public long recentPercentile(String apiName, Phase phase, double quantile, long minCount) {
+    ApiMetrics api = apis.get(apiName);
+    return api == null ? -1 : api.phase(phase).recentPercentile(quantile, minCount);
+  }
+
+  /**
+   * @return the metrics in the Prometheus text exposition format
+   */
+  public String toPrometheus() {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("# HELP gateway_request_duration_seconds Latency of the API requests.\n")
+      .append("# TYPE gateway_request_duration_seconds summary\n");
+    apis.forEach((apiName, api) -> {
+      for (int i = 0; i < ApiMetrics.STATUS_CLASSES.length; i++) {
+        LatencyHistogram histogram = api.requests(i);
+        if (histogram.count() > 0) {
+          summary(builder, "gateway_request_duration_seconds",
+            "api=\"" + apiName + "\",status=\"" + ApiMetrics.STATUS_CLASSES[i] + "\"", histogram);
+        }
+      }
+    });
+
+    builder.append("# HELP gateway_phase_duration_seconds Duration of the dispatch phases of the API requests.\n")
+      .append("# TYPE gateway_phase_duration_seconds summary\n");
+    apis.forEach((apiName, api) -> {
+      for (Phase phase : Phase.values()) {
+        LatencyHistogram histogram = api.phase(phase);
+        if (histogram.count() > 0) {
+          summary(builder, "gateway_phase_duration_seconds",
+            "api=\"" + apiName + "\",phase=\"" + phase.label() + "\"", histogram);
+        }
+      }
+    });
+
+    builder.append("# HELP gateway_requests_per_second Request rate, averaged over one minute.\n")
+      .append("# TYPE gateway_requests_per_second gauge\n");
+    apis.forEach((apiName, api) ->
+      builder.append("gateway_requests_per_second{api=\"").append(apiName).append("\"} ")
+        .append(api.rate()).append('\n'));
+
+    return builder.toString();
+  }
+
+  private ApiMetrics api(String apiName) {
+    ApiMetrics api = apis.get(apiName);
+    return api != null ? api : apis.computeIfAbsent(apiName, name -> new ApiMetrics());
+  }
+
+  private static void summary(StringBuilder builder, String name, String labels, LatencyHistogram histogram) {
+    for (double quantile : QUANTILES) {
+      builder.append(name).append('{').append(labels).append(",quantile=\"").append(quantile).append("\"} ")
+        .append(histogram.percentile(quantile) / 1e6).append('\n');
+    }
+    builder.append(name).append("_sum{").append(labels).append("} ").append(histogram.sum() / 1e6).append('\n');
+    builder.append(name).append("_count{").append(labels).append("} ").append(histogram.count()).append('\n');
+  }
+}
@@ -0,0 +1,145 @@
+package com.fbellotti.microservice.gateway.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with log-linear buckets, in the spirit of
+ * HdrHistogram: each power of two is split into 16 linear sub-buckets, which
+ * bounds the relative error of the percentiles to about 6%. Values are
+ * recorded in microseconds, and recording never allocates.
+ *
+ * Besides the percentiles since startup, the histogram gives the percentiles of
+ * a sliding window: snapshots of the counts are taken by {@link #rotate()}, and
+ * the window is the difference between the current counts and the oldest
+ * snapshot. The snapshots are only allocated once a recent percentile is asked.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+  private static final int WINDOW_SNAPSHOTS = 6;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private long[][] snapshots;
+  private int oldest;
+
+  /**
+   * Record a latency.
+   *
+   * @param nanos latency in nanoseconds
+   */
+  public void record(long nanos) {
+    long micros = Math.max(nanos / 1000, 0);
+    counts.incrementAndGet(index(micros));
+    count.increment();
+    sum.add(micros);
+  }
+
+  /**
+   * @return the number of recorded latencies
+   */
+  public long count() {
+    return count.sum();
+  }
+
+  /**
+   * @return the sum of the recorded latencies in microseconds
+   */
+  public long sum() {
+    return sum.sum();
+  }
+
+  /**
+   * Get a percentile of the recorded latencies.
+   *
+   * @param quantile quantile between 0 and 1
+   * @return the latency in microseconds, 0 if nothing was recorded
+   */
+  public long percentile(double quantile) {
+    long[] current = snapshot();
+    long total = 0;
+    for (long c : current) {
+      total += c;
+    }
+    return total == 0 ? 0 : percentile(current, total, quantile);
+  }
+
+  /**
+   * Get a percentile of the latencies recorded since the oldest of the last
+   * {@value #WINDOW_SNAPSHOTS} rotations. Until as many rotations followed the
+   * first call, the window starts with the histogram.
+   *
+   * @param quantile quantile between 0 and 1
+   * @param minCount minimum number of latencies in the window
+   * @return the latency in microseconds, or -1 if less than {@code minCount} latencies are in the window
+   */
+  public synchronized long recentPercentile(double quantile, long minCount) {
+    if (snapshots == null) {
+      snapshots = new long[WINDOW_SNAPSHOTS][BUCKETS];
+    }
+    long[] window = snapshot();
+    long[] base = snapshots[oldest];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      window[i] -= base[i];
+      total += window[i];
+    }
+    return total < Math.max(minCount, 1) ? -1 : percentile(window, total, quantile);
+  }
+
+  /**
+   * Take a snapshot of the counts, replacing the oldest one. Does nothing until
+   * a recent percentile is asked.
+   */
+  public synchronized void rotate() {
+    if (snapshots != null) {
+      snapshots[oldest] = snapshot();
+      oldest = (oldest + 1) % WINDOW_SNAPSHOTS;
+    }
+  }
+
+  private long[] snapshot() {
+    long[] snapshot = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+    }
+    return snapshot;
+  }
+
+  private static long percentile(long[] counts, long total, double quantile) {
+    long rank = Math.max(1, (long) Math.ceil(quantile * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return upperBound(i);
+      }
+    }
+    return upperBound(BUCKETS - 1);
+  }
+
+  static int index(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  static long upperBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    long subBucket = index % SUB_BUCKETS;
+    long width = 1L << (exponent - SUB_BUCKET_BITS);
+    return (1L << exponent) + (subBucket + 1) * width - 1;
+  }
+}
@@ -0,0 +1,39 @@
+package com.fbellotti.microservice.gateway.metrics;
+
+/**
+ * The phases of a request dispatched by the gateway.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public enum Phase {
+
+  /**
+   * From the arrival of the request to the end of the session and JWT handlers.
+   */
+  AUTH("auth"),
+
+  /**
+   * Rate limiting, cache lookup, routing and bulkhead queueing.
+   */
+  ROUTING("routing"),
+
+  /**
+   * From the request sent to the backend to its response.
+   */
+  BACKEND("backend"),
+
+  /**
+   * Writing the response to the client.
+   */
+  WRITE("write");
+
+  private final String label;
+
+  Phase(String label) {
+    this.label = label;
+  }
+
+  public String label() {
+    return label;
+  }
+}
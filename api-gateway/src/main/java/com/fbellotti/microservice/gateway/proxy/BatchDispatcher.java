@@ -0,0 +1,238 @@
+package com.fbellotti.microservice.gateway.proxy;
+
+import com.fbellotti.microservice.gateway.resilience.Bulkhead;
+import com.fbellotti.microservice.gateway.resilience.RateLimiter;
+import com.fbellotti.microservice.gateway.routing.Backend;
+import com.fbellotti.microservice.gateway.routing.Route;
+import com.fbellotti.microservice.gateway.routing.RoutingTable;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Map;
+
+/**
+ * Dispatch the sub-requests of a batch request to their backends in parallel,
+ * with a bounded concurrency, and collect their responses in order. Each
+ * sub-request goes through the rate limiter, the bulkhead and the circuit
+ * breaker of its backend like a single request.
+ *
+ * A sub-request is a JSON object with a {@code method}, a {@code path} starting
+ * with the {@code api.name}, and optional {@code headers} and {@code body}.
+ * Its response is a JSON object with a {@code status}, {@code headers} and {@code body}.
+ *
+ * This class is not thread safe, it must only be used from the gateway context.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class BatchDispatcher {
+
+  private static final int DEFAULT_CONCURRENCY = 8;
+
+  private final RoutingTable routingTable;
+  private final RateLimiter rateLimiter;
+  private final int concurrency;
+
+  /**
+   * @param routingTable routing table of the gateway
+   * @param rateLimiter  rate limiter of the gateway, may be {@code null}
+   * @param config       batch configuration
+   */
+  public BatchDispatcher(RoutingTable routingTable, RateLimiter rateLimiter, JsonObject config) {
+    this.routingTable = routingTable;
+    this.rateLimiter = rateLimiter;
+    this.concurrency = config.getInteger("concurrency", DEFAULT_CONCURRENCY);
+  }
+
+  /**
+   * Dispatch the sub-requests of a batch.
+   *
+   * @param requests  sub-requests
+   * @param user      user sending the batch
+   * @param principal principal of the user, may be {@code null}
+   * @param handler   handler receiving the responses, in the order of the sub-requests
+   */
+  public void dispatch(JsonArray requests, String user, JsonObject principal, Handler<JsonArray> handler) {
+    Batch batch = new Batch(requests, user, principal, handler);
+    for (int i = 0; i < concurrency && i < requests.size(); i++) {
+      batch.next();
+    }
+    if (requests.isEmpty()) {
+      handler.handle(new JsonArray());
+    }
+  }
+
+  private class Batch {
+
+    private final JsonArray requests;
+    private final String user;
+    private final JsonObject principal;
+    private final Handler<JsonArray> handler;
+    private final JsonObject[] responses;
+    private int started;
+    private int completed;
+
+    private Batch(JsonArray requests, String user, JsonObject principal, Handler<JsonArray> handler) {
+      this.requests = requests;
+      this.user = user;
+      this.principal = principal;
+      this.handler = handler;
+      this.responses = new JsonObject[requests.size()];
+    }
+
+    private void next() {
+      int index = started++;
+      Object item = requests.getValue(index);
+      Future<JsonObject> future = Future.future();
+      future.setHandler(ar -> {
+        responses[index] = ar.succeeded() ? ar.result() : error(502, ar.cause().getMessage());
+        completed++;
+        if (started < requests.size()) {
+          next();
+        } else if (completed == requests.size()) {
+          JsonArray array = new JsonArray();
+          for (JsonObject response : responses) {
+            array.add(response);
+          }
+          handler.handle(array);
+        }
+      });
+
+      if (item instanceof JsonObject) {
+        send((JsonObject) item, future);
+      } else {
+        future.complete(error(400, "Sub-request must be a JSON object"));
+      }
+    }
+
+    private void send(JsonObject item, Future<JsonObject> future) {
+      String path = item.getString("path");
+      HttpMethod method;
+      try {
+        method = HttpMethod.valueOf(item.getString("method", "GET").toUpperCase());
+      } catch (IllegalArgumentException e) {
+        future.complete(error(400, "Unknown method"));
+        return;
+      }
+      if (path == null || !path.startsWith("/") || path.length() < 2) {
+        future.complete(error(400, "Sub-request path must start with /<api.name>"));
+        return;
+      }
+
+      int prefixEnd = RoutingTable.apiNameEnd(path, 1);
+      String apiName = path.substring(1, prefixEnd);
+      String backendPath = path.substring(prefixEnd);
+      Route route = routingTable.lookup(apiName);
+      if (route == null) {
+        future.complete(error(404, "Not found"));
+        return;
+      }
+      if (rateLimiter != null && rateLimiter.acquire(user, apiName) > 0) {
+        future.complete(error(429, "Too many requests"));
+        return;
+      }
+
+      Bulkhead bulkhead = route.getBulkhead();
+      boolean admitted = bulkhead.execute(v -> {
+        Backend backend = route.select();
+        if (!backend.hasCapacity()) {
+          bulkhead.release();
+          future.complete(error(503, "Service unavailable"));
+          return;
+        }
+        backend.getCircuitBreaker().<JsonObject>execute(cbFuture -> {
+          long sentAt = System.nanoTime();
+          backend.requestStarted();
+          Future<JsonObject> exchange = Future.future();
+          exchange.setHandler(ar -> {
+            backend.requestEnded(System.nanoTime() - sentAt,
+              ar.failed() || ar.result().getInteger("status") >= 500);
+            if (ar.failed()) {
+              cbFuture.tryFail(ar.cause());
+            } else if (ar.result().getInteger("status") >= 500) {
+              // api endpoint server error, circuit breaker should fail, but the response is kept
+              future.tryComplete(ar.result());
+              cbFuture.tryFail("Server error " + ar.result().getInteger("status"));
+            } else {
+              cbFuture.tryComplete(ar.result());
+            }
+          });
+          request(backend, method, backendPath, item, exchange);
+        }).setHandler(ar -> {
+          bulkhead.release();
+          if (ar.succeeded()) {
+            future.tryComplete(ar.result());
+          } else {
+            future.tryFail(ar.cause());
+          }
+        });
+      });
+      if (!admitted) {
+        future.complete(error(503, "Service unavailable"));
+      }
+    }
+
+    private void request(Backend backend, HttpMethod method, String path, JsonObject item,
+                         Future<JsonObject> exchange) {
+      HttpClientRequest request = backend.getClient().request(method, path, response -> {
+        response.exceptionHandler(exchange::tryFail);
+        response.bodyHandler(body -> {
+          JsonObject headers = new JsonObject();
+          response.headers().forEach(header -> headers.put(header.getKey(), header.getValue()));
+          exchange.tryComplete(new JsonObject()
+            .put("status", response.statusCode())
+            .put("headers", headers)
+            .put("body", decode(response.getHeader("content-type"), body)));
+        });
+      });
+      request.exceptionHandler(exchange::tryFail);
+
+      JsonObject headers = item.getJsonObject("headers", new JsonObject());
+      for (Map.Entry<String, Object> header : headers) {
+        request.putHeader(header.getKey(), String.valueOf(header.getValue()));
+      }
+      if (principal != null) {
+        request.putHeader("user-principal", principal.encode());
+      }
+      Object body = item.getValue("body");
+      if (body == null) {
+        request.end();
+      } else {
+        request.putHeader("content-type", "application/json");
+        request.end(Json.encode(body));
+      }
+    }
+  }
+
+  private static Object decode(String contentType, Buffer body) {
+    if (body.length() == 0) {
+      return null;
+    }
+    String text = body.toString();
+    if (contentType != null && contentType.contains("json")) {
+      try {
+        String trimmed = text.trim();
+        if (trimmed.startsWith("{")) {
+          return new JsonObject(trimmed);
+        } else if (trimmed.startsWith("[")) {
+          return new JsonArray(trimmed);
+        }
+      } catch (DecodeException e) {
+        // not valid JSON after all, keep it as text
+      }
+    }
+    return text;
+  }
+
+  private static JsonObject error(int status, String message) {
+    return new JsonObject()
+      .put("status", status)
+      .put("body", new JsonObject().put("error", message));
+  }
+}
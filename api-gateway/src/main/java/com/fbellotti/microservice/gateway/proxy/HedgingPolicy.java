@@ -0,0 +1,146 @@
+package com.fbellotti.microservice.gateway.proxy;
+
+import com.fbellotti.microservice.gateway.metrics.GatewayMetrics;
+import com.fbellotti.microservice.gateway.metrics.Phase;
+import com.fbellotti.microservice.gateway.resilience.RetryBudget;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hedging of the idempotent requests: when the backend has not answered
+ * after a delay derived from a percentile of the backend latency of the API,
+ * the same request is sent to a second backend and the first response wins.
+ * The percentile covers the recent requests only, and the delays are computed
+ * every {@code refresh.period} milliseconds by {@link #refresh(GatewayMetrics)},
+ * not for each request.
+ * The hedged requests are bounded by a {@link RetryBudget} shared by all the APIs.
+ * A single instance, lock-free, is shared by all the gateway verticle instances of
+ * a node, so the budget bounds the hedged requests of the whole node.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class HedgingPolicy implements Shareable {
+
+  private static final double DEFAULT_QUANTILE = 0.95;
+  private static final long DEFAULT_MIN_DELAY = 10;
+  private static final long DEFAULT_MAX_DELAY = 1000;
+  private static final long DEFAULT_MIN_SAMPLES = 100;
+  private static final long DEFAULT_REFRESH_PERIOD = 1000;
+
+  private final JsonArray apis;
+  private final double quantile;
+  private final long minDelay;
+  private final long maxDelay;
+  private final long minSamples;
+  private final long refreshPeriod;
+  private final RetryBudget budget;
+  private final Map<String, Long> delays = new ConcurrentHashMap<>();
+  private final LongAdder hedged = new LongAdder();
+  private final LongAdder won = new LongAdder();
+
+  public HedgingPolicy(JsonObject config) {
+    this.apis = config.getJsonArray("apis", new JsonArray());
+    this.quantile = config.getDouble("quantile", DEFAULT_QUANTILE);
+    this.minDelay = config.getLong("min.delay", DEFAULT_MIN_DELAY);
+    this.maxDelay = config.getLong("max.delay", DEFAULT_MAX_DELAY);
+    this.minSamples = config.getLong("min.samples", DEFAULT_MIN_SAMPLES);
+    this.refreshPeriod = config.getLong("refresh.period", DEFAULT_REFRESH_PERIOD);
+    this.budget = new RetryBudget(config.getJsonObject("budget", new JsonObject()));
+  }
+
+  /**
+   * Check whether a request may be hedged, and record it in the retry budget.
+   *
+   * @param apiName name of the requested API
+   * @param method  method of the request
+   * @return true if the request is idempotent and its API is hedged
+   */
+  public boolean accepts(String apiName, HttpMethod method) {
+    if (!isIdempotent(method) || !(apis.isEmpty() || apis.contains(apiName))) {
+      return false;
+    }
+    budget.deposit();
+    return true;
+  }
+
+  /**
+   * @return the period of {@link #refresh(GatewayMetrics)} in milliseconds
+   */
+  public long getRefreshPeriod() {
+    return refreshPeriod;
+  }
+
+  /**
+   * Get the hedging delay of an API, as computed by the last refresh. An API
+   * seen for the first time is hedged after the maximum delay until then.
+   *
+   * @param apiName name of the API
+   * @return the delay in milliseconds
+   */
+  public long delay(String apiName) {
+    Long delay = delays.putIfAbsent(apiName, maxDelay);
+    return delay == null ? maxDelay : delay;
+  }
+
+  /**
+   * Compute again the hedging delays of the APIs from their recent backend latency.
+   *
+   * @param metrics metrics of the gateway
+   */
+  public void refresh(GatewayMetrics metrics) {
+    delays.replaceAll((apiName, delay) ->
+      delay(metrics.recentPercentile(apiName, Phase.BACKEND, quantile, minSamples)));
+  }
+
+  /**
+   * Compute the hedging delay.
+   *
+   * @param percentileMicros percentile of the backend latency in microseconds, or -1 if unknown
+   * @return the delay in milliseconds
+   */
+  long delay(long percentileMicros) {
+    if (percentileMicros < 0) {
+      return maxDelay;
+    }
+    long delay = TimeUnit.MICROSECONDS.toMillis(percentileMicros);
+    return Math.max(minDelay, Math.min(maxDelay, delay));
+  }
+
+  /**
+   * Spend the retry budget for a hedged request.
+   *
+   * @return true if the hedged request may be sent
+   */
+  public boolean tryHedge() {
+    if (budget.tryWithdraw()) {
+      hedged.increment();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Record a hedged request answering first.
+   */
+  public void hedgeWon() {
+    won.increment();
+  }
+
+  public JsonObject toJson() {
+    return new JsonObject()
+      .put("hedged", hedged.sum())
+      .put("won", won.sum())
+      .put("budget", budget.toJson());
+  }
+
+  private static boolean isIdempotent(HttpMethod method) {
+    return method == HttpMethod.GET || method == HttpMethod.HEAD || method == HttpMethod.OPTIONS;
+  }
+}
@@ -0,0 +1,76 @@
+package com.fbellotti.microservice.gateway.proxy;
+
+import io.vertx.core.MultiMap;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Copy HTTP headers from one message to another, leaving out the hop-by-hop
+ * headers which only apply to a single connection (RFC 7230, section 6.1),
+ * as well as the HTTP/2 pseudo headers.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public final class HopByHopHeaders {
+
+  private static final Set<String> HOP_BY_HOP = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+  static {
+    HOP_BY_HOP.addAll(Arrays.asList("connection", "keep-alive", "proxy-authenticate",
+      "proxy-authorization", "te", "trailer", "transfer-encoding", "upgrade"));
+  }
+
+  private HopByHopHeaders() {
+    // utility class
+  }
+
+  /**
+   * Copy the end-to-end headers of {@code from} into {@code to}.
+   *
+   * @param from headers of the received message
+   * @param to   headers of the forwarded message
+   */
+  public static void copy(MultiMap from, MultiMap to) {
+    String connection = from.get("connection");
+    for (Map.Entry<String, String> header : from) {
+      String name = header.getKey();
+      if (!name.startsWith(":") && !HOP_BY_HOP.contains(name) && !listedIn(connection, name)) {
+        to.add(name, header.getValue());
+      }
+    }
+  }
+
+  /**
+   * @return true if {@code name} is one of the comma separated tokens of the Connection header
+   */
+  private static boolean listedIn(String connection, String name) {
+    if (connection == null) {
+      return false;
+    }
+    int length = connection.length();
+    int start = 0;
+    while (start < length) {
+      int end = connection.indexOf(',', start);
+      if (end < 0) {
+        end = length;
+      }
+      int tokenStart = start;
+      int tokenEnd = end;
+      while (tokenStart < tokenEnd && connection.charAt(tokenStart) == ' ') {
+        tokenStart++;
+      }
+      while (tokenEnd > tokenStart && connection.charAt(tokenEnd - 1) == ' ') {
+        tokenEnd--;
+      }
+      if (tokenEnd - tokenStart == name.length()
+        && connection.regionMatches(true, tokenStart, name, 0, name.length())) {
+        return true;
+      }
+      start = end + 1;
+    }
+    return false;
+  }
+}
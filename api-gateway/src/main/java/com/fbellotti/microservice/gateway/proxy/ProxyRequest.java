@@ -0,0 +1,108 @@
+package com.fbellotti.microservice.gateway.proxy;
+
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * A request dispatched by the API gateway to a backend.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class ProxyRequest {
+
+  private final RoutingContext context;
+  private final String apiName;
+  private final String path;
+  private boolean cacheable;
+  private String coalescingKey;
+  private long dispatchedAt;
+  private long sentAt;
+  private int attempts;
+
+  /**
+   * @param context routing context of the client request
+   * @param apiName name of the requested API
+   * @param path    uri relative to the API
+   */
+  public ProxyRequest(RoutingContext context, String apiName, String path) {
+    this.context = context;
+    this.apiName = apiName;
+    this.path = path;
+  }
+
+  public RoutingContext getContext() {
+    return context;
+  }
+
+  public String getApiName() {
+    return apiName;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  /**
+   * @return true if the response may be kept in the response cache
+   */
+  public boolean isCacheable() {
+    return cacheable;
+  }
+
+  public ProxyRequest setCacheable(boolean cacheable) {
+    this.cacheable = cacheable;
+    return this;
+  }
+
+  /**
+   * @return the key of the identical requests waiting for this one, or {@code null}
+   */
+  public String getCoalescingKey() {
+    return coalescingKey;
+  }
+
+  public ProxyRequest setCoalescingKey(String coalescingKey) {
+    this.coalescingKey = coalescingKey;
+    return this;
+  }
+
+  /**
+   * @return the time in nanoseconds at which the gateway started to dispatch the request
+   */
+  public long getDispatchedAt() {
+    return dispatchedAt;
+  }
+
+  public ProxyRequest setDispatchedAt(long dispatchedAt) {
+    this.dispatchedAt = dispatchedAt;
+    return this;
+  }
+
+  /**
+   * @return the time in nanoseconds at which the request was sent to the backend
+   */
+  public long getSentAt() {
+    return sentAt;
+  }
+
+  public ProxyRequest setSentAt(long sentAt) {
+    this.sentAt = sentAt;
+    return this;
+  }
+
+  /**
+   * Count an attempt to send the request to a backend, the request may be
+   * sent to several backends when it is hedged.
+   */
+  public void attemptStarted() {
+    attempts++;
+  }
+
+  /**
+   * Count a failed attempt.
+   *
+   * @return true if no other attempt is in flight, so the failure must be reported to the client
+   */
+  public boolean attemptFailed() {
+    return --attempts == 0;
+  }
+}
@@ -0,0 +1,115 @@
+package com.fbellotti.microservice.gateway.proxy;
+
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coalesce identical concurrent requests: the first one is sent to the backend,
+ * the next ones wait for its response which is then written to all of them.
+ * Conditional and range requests are not coalesced, their response depends on
+ * headers which are not part of the key, and the waiters only get the headers
+ * of the backend response, without its cookies.
+ *
+ * This class is not thread safe, it must only be used from the gateway context.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class RequestCoalescer {
+
+  private static final String[] CONDITIONAL_HEADERS = {"if-none-match", "if-modified-since", "if-match",
+    "if-unmodified-since", "if-range", "range"};
+
+  private final JsonArray sharedApis;
+  private final Map<String, List<RoutingContext>> inFlight = new HashMap<>();
+  private long coalesced;
+
+  public RequestCoalescer(JsonObject config) {
+    this.sharedApis = config.getJsonArray("shared.apis", new JsonArray());
+  }
+
+  /**
+   * Build the key of a request. The user is part of the key, unless the responses
+   * of the API are the same for every user.
+   *
+   * @param user    user sending the request
+   * @param apiName name of the API
+   * @param path    uri relative to the API, including the query
+   * @return the key
+   */
+  public String key(String user, String apiName, String path) {
+    return sharedApis.contains(apiName) ? apiName + path : user + "|" + apiName + path;
+  }
+
+  /**
+   * @param headers headers of a request
+   * @return true if the response of the request depends on its conditional or range headers,
+   * so the request must not be coalesced
+   */
+  public static boolean isConditional(MultiMap headers) {
+    for (String name : CONDITIONAL_HEADERS) {
+      if (headers.contains(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Build the headers of the response written to the waiting requests.
+   *
+   * @param backendHeaders headers of the backend response
+   * @return the end-to-end headers of the backend response, without {@code set-cookie}
+   */
+  public static MultiMap waiterHeaders(MultiMap backendHeaders) {
+    MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+    HopByHopHeaders.copy(backendHeaders, headers);
+    headers.remove("set-cookie");
+    return headers;
+  }
+
+  /**
+   * Join an identical request in flight, or start a new flight.
+   *
+   * @param key     request key
+   * @param context routing context of the request
+   * @return true if the request joined a flight and must wait for its response,
+   * false if the request must be sent to the backend
+   */
+  public boolean join(String key, RoutingContext context) {
+    List<RoutingContext> waiters = inFlight.get(key);
+    if (waiters == null) {
+      inFlight.put(key, new ArrayList<>());
+      return false;
+    }
+    waiters.add(context);
+    coalesced++;
+    return true;
+  }
+
+  /**
+   * End a flight and handle the requests which were waiting for it.
+   *
+   * @param key    request key
+   * @param action action writing the response of a waiting request
+   */
+  public void land(String key, Handler<RoutingContext> action) {
+    List<RoutingContext> waiters = inFlight.remove(key);
+    if (waiters != null) {
+      waiters.forEach(action::handle);
+    }
+  }
+
+  public JsonObject toJson() {
+    return new JsonObject()
+      .put("inFlight", inFlight.size())
+      .put("coalesced", coalesced);
+  }
+}
@@ -0,0 +1,101 @@
+package com.fbellotti.microservice.gateway.resilience;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * An adaptive concurrency limit, following a gradient algorithm: the limit is
+ * multiplied by the ratio between the long term and the short term latency,
+ * so it shrinks as soon as the backend slows down and grows again, by about
+ * the square root of the limit, while the latency stays stable. Failures cut
+ * the limit down multiplicatively.
+ *
+ * This class is not thread safe, it must only be used from the gateway context.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class AdaptiveLimiter {
+
+  private static final int DEFAULT_INITIAL_LIMIT = 20;
+  private static final int DEFAULT_MIN_LIMIT = 1;
+  private static final int DEFAULT_MAX_LIMIT = 200;
+  private static final double DEFAULT_TOLERANCE = 1.5;
+  private static final double SMOOTHING = 0.2;
+  private static final double SHORT_WINDOW = 0.1;
+  private static final double LONG_WINDOW = 0.01;
+  private static final double BACKOFF = 0.9;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final double tolerance;
+  private double limit;
+  private double shortRtt;
+  private double longRtt;
+  private long shed;
+
+  public AdaptiveLimiter(JsonObject config) {
+    this.minLimit = config.getInteger("min.limit", DEFAULT_MIN_LIMIT);
+    this.maxLimit = config.getInteger("max.limit", DEFAULT_MAX_LIMIT);
+    this.tolerance = config.getDouble("tolerance", DEFAULT_TOLERANCE);
+    this.limit = config.getInteger("initial.limit", DEFAULT_INITIAL_LIMIT);
+  }
+
+  /**
+   * @param inFlight number of requests in flight
+   * @return true if one more request may be sent, otherwise the request is counted as shed
+   */
+  public boolean hasCapacity(int inFlight) {
+    if (hasSpareCapacity(inFlight)) {
+      return true;
+    }
+    shed++;
+    return false;
+  }
+
+  /**
+   * Check the limit for an optional request, such as a hedged one: not sending it is
+   * not shedding it.
+   *
+   * @param inFlight number of requests in flight
+   * @return true if one more request may be sent
+   */
+  public boolean hasSpareCapacity(int inFlight) {
+    return inFlight < (int) limit;
+  }
+
+  /**
+   * Update the limit with the outcome of a request.
+   *
+   * @param rttNanos latency of the request in nanoseconds
+   * @param inFlight number of requests in flight when the request ended
+   * @param dropped  true if the request failed or timed out
+   */
+  public void onSample(long rttNanos, int inFlight, boolean dropped) {
+    double newLimit;
+    if (dropped) {
+      newLimit = limit * BACKOFF;
+    } else {
+      double rtt = rttNanos;
+      shortRtt = shortRtt == 0 ? rtt : shortRtt + SHORT_WINDOW * (rtt - shortRtt);
+      longRtt = longRtt == 0 ? rtt : longRtt + LONG_WINDOW * (rtt - longRtt);
+      // let the long term latency recover after a long lasting slow down
+      if (longRtt > shortRtt * 2) {
+        longRtt *= 0.95;
+      }
+      // only grow when the limit is actually used
+      if (inFlight < limit / 2) {
+        return;
+      }
+      double gradient = Math.max(0.5, Math.min(1.0, tolerance * longRtt / shortRtt));
+      newLimit = limit * gradient + Math.sqrt(limit);
+    }
+    limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+  }
+
+  public JsonObject toJson() {
+    return new JsonObject()
+      .put("limit", (int) limit)
+      .put("shortRttMs", shortRtt / 1e6)
+      .put("longRttMs", longRtt / 1e6)
+      .put("shed", shed);
+  }
+}
@@ -0,0 +1,75 @@
+package com.fbellotti.microservice.gateway.resilience;
+
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A bulkhead bounding the number of requests in flight to an API. Requests
+ * over the limit wait in a bounded queue, and are rejected as soon as the
+ * queue is full.
+ *
+ * This class is not thread safe, it must only be used from the gateway context.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class Bulkhead {
+
+  private static final int DEFAULT_MAX_CONCURRENT = 100;
+  private static final int DEFAULT_MAX_QUEUE = 100;
+
+  private final int maxConcurrent;
+  private final int maxQueue;
+  private final Deque<Handler<Void>> queue = new ArrayDeque<>();
+  private int inFlight;
+  private long rejected;
+
+  public Bulkhead(JsonObject config) {
+    this.maxConcurrent = config.getInteger("max.concurrent", DEFAULT_MAX_CONCURRENT);
+    this.maxQueue = config.getInteger("max.queue", DEFAULT_MAX_QUEUE);
+  }
+
+  /**
+   * Run a task as soon as there is room for it. The task must call
+   * {@link #release()} once the request is over.
+   *
+   * @param task task sending the request
+   * @return false if the request is rejected because the queue is full
+   */
+  public boolean execute(Handler<Void> task) {
+    if (inFlight < maxConcurrent) {
+      inFlight++;
+      task.handle(null);
+      return true;
+    }
+    if (queue.size() < maxQueue) {
+      queue.add(task);
+      return true;
+    }
+    rejected++;
+    return false;
+  }
+
+  /**
+   * Release the slot of a request, and run the next waiting one if any.
+   */
+  public void release() {
+    Handler<Void> next = queue.poll();
+    if (next == null) {
+      inFlight--;
+    } else {
+      next.handle(null);
+    }
+  }
+
+  public JsonObject toJson() {
+    return new JsonObject()
+      .put("maxConcurrent", maxConcurrent)
+      .put("maxQueue", maxQueue)
+      .put("inFlight", inFlight)
+      .put("queued", queue.size())
+      .put("rejected", rejected);
+  }
+}
@@ -0,0 +1,131 @@
+package com.fbellotti.microservice.gateway.resilience;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rate limiter of the API gateway, with one token bucket per user and per API.
+ * Requests only touch the local buckets, which are lock-free. Each gateway node
+ * periodically publishes the tokens taken from its buckets since the previous
+ * round on {@code sync.address}, and takes the tokens consumed by the other nodes
+ * from its own buckets, so the limits hold across nodes. Nothing is kept in the
+ * cluster: a bucket only lives on the nodes while its user is active.
+ * A single instance is shared by all the gateway verticle instances of a node.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class RateLimiter implements Shareable {
+
+  private static final String DEFAULT_SYNC_ADDRESS = "api.gateway.rate.limit.sync";
+  private static final double DEFAULT_RATE = 100;
+  private static final int DEFAULT_BURST = 200;
+  private static final long DEFAULT_SYNC_PERIOD = 1000;
+  private static final long IDLE_TIME = TimeUnit.MINUTES.toNanos(5);
+
+  private final Vertx vertx;
+  private final JsonObject defaultLimit;
+  private final JsonObject routeLimits;
+  private final long syncPeriod;
+  private final String syncAddress;
+  private final String node = UUID.randomUUID().toString();
+  private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+  private final LongAdder allowed = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+
+  public RateLimiter(Vertx vertx, JsonObject config) {
+    this.vertx = vertx;
+    this.defaultLimit = config.getJsonObject("default", new JsonObject());
+    this.routeLimits = config.getJsonObject("routes", new JsonObject());
+    this.syncPeriod = config.getLong("sync.period", DEFAULT_SYNC_PERIOD);
+    this.syncAddress = config.getString("sync.address", DEFAULT_SYNC_ADDRESS);
+  }
+
+  /**
+   * Start the periodic synchronization with the other gateway nodes.
+   */
+  public void start() {
+    vertx.eventBus().<JsonObject>consumer(syncAddress, message -> {
+      if (!node.equals(message.body().getString("node"))) {
+        consumeRemote(message.body().getJsonObject("tokens"));
+      }
+    });
+    vertx.setPeriodic(syncPeriod, id -> sync());
+  }
+
+  /**
+   * Take a token for a request.
+   *
+   * @param user    user sending the request
+   * @param apiName name of the requested API
+   * @return 0 if the request is allowed, otherwise the time in nanoseconds until it would be
+   */
+  public long acquire(String user, String apiName) {
+    long now = System.nanoTime();
+    TokenBucket bucket = buckets.computeIfAbsent(apiName + ":" + user, key -> bucket(apiName, now));
+    long wait = bucket.tryAcquire(now);
+    if (wait == 0) {
+      allowed.increment();
+    } else {
+      rejected.increment();
+    }
+    return wait;
+  }
+
+  public JsonObject toJson() {
+    return new JsonObject()
+      .put("allowed", allowed.sum())
+      .put("rejected", rejected.sum())
+      .put("buckets", buckets.size());
+  }
+
+  private TokenBucket bucket(String apiName, long now) {
+    JsonObject limit = routeLimits.getJsonObject(apiName, defaultLimit);
+    return new TokenBucket(limit.getDouble("rate", DEFAULT_RATE), limit.getInteger("burst", DEFAULT_BURST), now);
+  }
+
+  /**
+   * Publish the tokens taken locally since the previous round. Idle buckets are dropped.
+   */
+  private void sync() {
+    long now = System.nanoTime();
+    JsonObject tokens = new JsonObject();
+    Iterator<Map.Entry<String, TokenBucket>> iterator = buckets.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, TokenBucket> entry = iterator.next();
+      TokenBucket bucket = entry.getValue();
+      if (bucket.isIdle(now, IDLE_TIME)) {
+        iterator.remove();
+        continue;
+      }
+      long local = bucket.drainConsumed();
+      if (local > 0) {
+        tokens.put(entry.getKey(), local);
+      }
+    }
+    if (!tokens.isEmpty()) {
+      vertx.eventBus().publish(syncAddress, new JsonObject().put("node", node).put("tokens", tokens));
+    }
+  }
+
+  /**
+   * Take the tokens consumed by another node from the local buckets.
+   *
+   * @param tokens tokens taken by the other node, per bucket key
+   */
+  void consumeRemote(JsonObject tokens) {
+    long now = System.nanoTime();
+    for (Map.Entry<String, Object> entry : tokens) {
+      String key = entry.getKey();
+      String apiName = key.substring(0, key.indexOf(':'));
+      buckets.computeIfAbsent(key, k -> bucket(apiName, now)).consume(((Number) entry.getValue()).longValue(), now);
+    }
+  }
+}
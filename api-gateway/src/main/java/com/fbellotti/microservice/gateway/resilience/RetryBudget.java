@@ -0,0 +1,77 @@
+package com.fbellotti.microservice.gateway.resilience;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A budget bounding the extra requests sent by the gateway (hedged requests,
+ * retries) to a ratio of the regular requests. Every regular request deposits
+ * {@code ratio} in the budget and every extra request withdraws one, on top of
+ * a small reserve refilled over time so that a low traffic still gets a few
+ * extra requests. When the backends fail, the extra requests stop as soon as
+ * the budget is spent instead of amplifying the load.
+ *
+ * The budget is lock-free, so a single budget is shared by all the gateway
+ * verticle instances of a node: the balance is a fixed-point number updated
+ * with compare-and-set, and the reserve is a {@link TokenBucket}.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class RetryBudget {
+
+  private static final double DEFAULT_RATIO = 0.1;
+  private static final int DEFAULT_MIN_PER_SECOND = 10;
+  private static final int DEFAULT_MAX_BALANCE = 100;
+  // fixed-point unit of the balance, one extra request
+  private static final long UNIT = 1000000;
+
+  private final long ratio;
+  private final long maxBalance;
+  private final TokenBucket reserve;
+  private final AtomicLong balance = new AtomicLong();
+  private final LongAdder withdrawn = new LongAdder();
+  private final LongAdder exhausted = new LongAdder();
+
+  public RetryBudget(JsonObject config) {
+    this.ratio = Math.round(config.getDouble("ratio", DEFAULT_RATIO) * UNIT);
+    this.maxBalance = config.getInteger("max.balance", DEFAULT_MAX_BALANCE) * UNIT;
+    int minPerSecond = config.getInteger("min.per.second", DEFAULT_MIN_PER_SECOND);
+    this.reserve = minPerSecond > 0 ? new TokenBucket(minPerSecond, minPerSecond, System.nanoTime()) : null;
+  }
+
+  /**
+   * Record a regular request.
+   */
+  public void deposit() {
+    balance.accumulateAndGet(ratio, (current, deposit) -> Math.min(maxBalance, current + deposit));
+  }
+
+  /**
+   * Try to spend the budget for an extra request.
+   *
+   * @return true if the extra request may be sent
+   */
+  public boolean tryWithdraw() {
+    if (reserve == null || reserve.tryAcquire(System.nanoTime()) != 0) {
+      long current;
+      do {
+        current = balance.get();
+        if (current < UNIT) {
+          exhausted.increment();
+          return false;
+        }
+      } while (!balance.compareAndSet(current, current - UNIT));
+    }
+    withdrawn.increment();
+    return true;
+  }
+
+  public JsonObject toJson() {
+    return new JsonObject()
+      .put("balance", balance.get() / (double) UNIT)
+      .put("withdrawn", withdrawn.sum())
+      .put("exhausted", exhausted.sum());
+  }
+}
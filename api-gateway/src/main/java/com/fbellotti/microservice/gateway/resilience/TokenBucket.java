@@ -0,0 +1,81 @@
+package com.fbellotti.microservice.gateway.resilience;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free token bucket, implemented as a generic cell rate algorithm: the
+ * bucket only stores the theoretical arrival time of the next request, which
+ * is updated with a single compare-and-set.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class TokenBucket {
+
+  private final long interval;
+  private final long tolerance;
+  private final AtomicLong arrival;
+  private final AtomicLong consumed = new AtomicLong();
+  private volatile long lastUsed;
+
+  /**
+   * @param rate  tokens added per second
+   * @param burst maximum number of tokens in the bucket
+   * @param now   current time in nanoseconds
+   */
+  public TokenBucket(double rate, int burst, long now) {
+    this.interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+    this.tolerance = interval * burst;
+    this.arrival = new AtomicLong(now);
+    this.lastUsed = now;
+  }
+
+  /**
+   * Take a token.
+   *
+   * @param now current time in nanoseconds
+   * @return 0 if a token was taken, otherwise the time in nanoseconds until one is available
+   */
+  public long tryAcquire(long now) {
+    lastUsed = now;
+    while (true) {
+      long current = arrival.get();
+      long next = Math.max(current, now) + interval;
+      long wait = next - now - tolerance;
+      if (wait > 0) {
+        return wait;
+      }
+      if (arrival.compareAndSet(current, next)) {
+        consumed.incrementAndGet();
+        return 0;
+      }
+    }
+  }
+
+  /**
+   * Take tokens consumed elsewhere, whatever the bucket content.
+   *
+   * @param tokens number of tokens
+   * @param now    current time in nanoseconds
+   */
+  void consume(long tokens, long now) {
+    while (tokens > 0) {
+      long current = arrival.get();
+      long next = Math.max(current, now) + tokens * interval;
+      if (arrival.compareAndSet(current, next)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return the number of tokens taken locally since the last call
+   */
+  long drainConsumed() {
+    return consumed.getAndSet(0);
+  }
+
+  boolean isIdle(long now, long idleTime) {
+    return now - lastUsed > idleTime && consumed.get() == 0;
+  }
+}
@@ -0,0 +1,150 @@
+package com.fbellotti.microservice.gateway.routing;
+
+import com.fbellotti.microservice.gateway.resilience.AdaptiveLimiter;
+import io.vertx.circuitbreaker.CircuitBreaker;
+import io.vertx.circuitbreaker.CircuitBreakerOptions;
+import io.vertx.circuitbreaker.CircuitBreakerState;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.json.JsonObject;
+import io.vertx.servicediscovery.Record;
+
+/**
+ * A backend instance of an API. It owns a pooled, keep-alive HTTP client,
+ * a circuit breaker and an adaptive concurrency limiter which live as long as
+ * the instance is registered in the service discovery, and it counts the
+ * requests currently sent to the instance.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class Backend {
+
+  private final Record record;
+  private final HttpClient client;
+  private final CircuitBreaker circuitBreaker;
+  private final AdaptiveLimiter limiter;
+  private int outstanding;
+  private boolean retired;
+
+  public Backend(Vertx vertx, Record record, JsonObject config) {
+    this.record = record;
+
+    JsonObject location = record.getLocation();
+    boolean ssl = location.getBoolean("ssl", false);
+    HttpClientOptions options = new HttpClientOptions()
+      .setDefaultHost(location.getString("host"))
+      .setDefaultPort(location.getInteger("port"))
+      .setSsl(ssl)
+      .setKeepAlive(true)
+      .setMaxPoolSize(config.getInteger("api.gateway.client.pool.size", HttpClientOptions.DEFAULT_MAX_POOL_SIZE))
+      .setIdleTimeout(config.getInteger("api.gateway.client.idle.timeout", 60));
+
+    // Multiplex the requests over a few HTTP/2 connections: negotiated with ALPN
+    // for TLS backends, with prior knowledge (h2c) for clear text backends
+    JsonObject http2 = config.getJsonObject("api.gateway.client.http2", new JsonObject());
+    if (http2.getBoolean("enabled", false)) {
+      options.setProtocolVersion(HttpVersion.HTTP_2)
+        .setUseAlpn(ssl)
+        .setHttp2ClearTextUpgrade(false)
+        .setHttp2MultiplexingLimit(http2.getInteger("max.concurrent.streams", 100))
+        .setHttp2MaxPoolSize(http2.getInteger("max.connections", 1));
+    }
+    this.client = vertx.createHttpClient(options);
+
+    this.circuitBreaker = CircuitBreaker.create(
+      "api-gateway:" + record.getMetadata().getString(RoutingTable.API_NAME) + ":" + record.getRegistration(),
+      vertx, new CircuitBreakerOptions(config.getJsonObject("api.gateway.circuit.breaker", new JsonObject())));
+    this.limiter = new AdaptiveLimiter(config.getJsonObject("api.gateway.adaptive.limit", new JsonObject()));
+  }
+
+  public Record getRecord() {
+    return record;
+  }
+
+  public HttpClient getClient() {
+    return client;
+  }
+
+  public CircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  /**
+   * @return true if the circuit breaker of this backend does not reject requests
+   */
+  public boolean isAvailable() {
+    return circuitBreaker.state() != CircuitBreakerState.OPEN;
+  }
+
+  /**
+   * Check the adaptive concurrency limit before sending a request.
+   *
+   * @return false if the request must be shed
+   */
+  public boolean hasCapacity() {
+    return limiter.hasCapacity(outstanding);
+  }
+
+  /**
+   * Check the adaptive concurrency limit before sending an optional request, which
+   * is not counted as shed if the limit is reached.
+   *
+   * @return true if the request may be sent
+   */
+  public boolean hasSpareCapacity() {
+    return limiter.hasSpareCapacity(outstanding);
+  }
+
+  /**
+   * @return the number of requests sent to this backend and not yet answered
+   */
+  public int getOutstanding() {
+    return outstanding;
+  }
+
+  public JsonObject toJson() {
+    return new JsonObject()
+      .put("registration", record.getRegistration())
+      .put("location", record.getLocation())
+      .put("outstanding", outstanding)
+      .put("concurrencyLimit", limiter.toJson())
+      .put("circuitBreaker", new JsonObject()
+        .put("state", circuitBreaker.state().name())
+        .put("failures", circuitBreaker.failureCount()));
+  }
+
+  /**
+   * Must be called when a request is sent to this backend.
+   */
+  public void requestStarted() {
+    outstanding++;
+  }
+
+  /**
+   * Must be called when a request sent to this backend is over, whatever its result.
+   *
+   * @param rttNanos latency of the request in nanoseconds
+   * @param dropped  true if the request failed
+   */
+  public void requestEnded(long rttNanos, boolean dropped) {
+    limiter.onSample(rttNanos, outstanding, dropped);
+    outstanding--;
+    if (retired && outstanding == 0) {
+      client.close();
+    }
+  }
+
+  /**
+   * Retire the backend once it is removed from the routing table. The client
+   * is closed as soon as the outstanding requests are over.
+   */
+  void retire() {
+    retired = true;
+    circuitBreaker.close();
+    if (outstanding == 0) {
+      client.close();
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package com.fbellotti.microservice.gateway.routing;
+
+import com.fbellotti.microservice.gateway.balancing.LoadBalancer;
+import com.fbellotti.microservice.gateway.resilience.Bulkhead;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The backends serving an API, the load balancer choosing between them and
+ * the bulkhead bounding the requests in flight to the API.
+ * A route is immutable, the routing table replaces it when its backends change.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class Route {
+
+  private final String apiName;
+  private final List<Backend> backends;
+  private final LoadBalancer loadBalancer;
+  private final Bulkhead bulkhead;
+
+  Route(String apiName, List<Backend> backends, LoadBalancer loadBalancer, Bulkhead bulkhead) {
+    this.apiName = apiName;
+    this.backends = Collections.unmodifiableList(backends);
+    this.loadBalancer = loadBalancer;
+    this.bulkhead = bulkhead;
+  }
+
+  public String getApiName() {
+    return apiName;
+  }
+
+  public List<Backend> getBackends() {
+    return backends;
+  }
+
+  public Bulkhead getBulkhead() {
+    return bulkhead;
+  }
+
+  /**
+   * Choose the backend which will serve the next request. When the load balancer
+   * chooses a backend whose circuit breaker is open, another available backend
+   * is used instead if any.
+   *
+   * @return the backend
+   */
+  public Backend select() {
+    Backend backend = loadBalancer.select(backends);
+    if (!backend.isAvailable()) {
+      for (Backend other : backends) {
+        if (other.isAvailable()) {
+          return other;
+        }
+      }
+    }
+    return backend;
+  }
+
+  /**
+   * Choose a second backend for a request already sent to {@code excluded}:
+   * the available backend with the fewest requests in flight.
+   *
+   * @param excluded backend already serving the request
+   * @return the backend, or {@code null} if there is no other available backend
+   */
+  public Backend selectOther(Backend excluded) {
+    Backend selected = null;
+    for (Backend backend : backends) {
+      if (backend != excluded && backend.isAvailable()
+        && (selected == null || backend.getOutstanding() < selected.getOutstanding())) {
+        selected = backend;
+      }
+    }
+    return selected;
+  }
+
+  public JsonObject toJson() {
+    JsonArray array = new JsonArray();
+    backends.forEach(backend -> array.add(backend.toJson()));
+    return new JsonObject()
+      .put("bulkhead", bulkhead.toJson())
+      .put("backends", array);
+  }
+
+  Route with(Backend backend) {
+    List<Backend> list = new ArrayList<>(backends);
+    list.add(backend);
+    return new Route(apiName, list, loadBalancer, bulkhead);
+  }
+
+  Route without(Backend backend) {
+    List<Backend> list = new ArrayList<>(backends);
+    list.remove(backend);
+    return new Route(apiName, list, loadBalancer, bulkhead);
+  }
+}
@@ -0,0 +1,164 @@
+package com.fbellotti.microservice.gateway.routing;
+
+import com.fbellotti.microservice.gateway.balancing.LoadBalancer;
+import com.fbellotti.microservice.gateway.resilience.Bulkhead;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.servicediscovery.Record;
+import io.vertx.servicediscovery.Status;
+import io.vertx.servicediscovery.types.HttpEndpoint;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory routing table of the API gateway, keyed by {@code api.name}.
+ * The table is filled once at startup from the service discovery and then
+ * kept up to date with the records announced on the discovery announce address,
+ * so dispatching a request never has to query the discovery backend.
+ *
+ * Each registered record gets a {@link Backend} owning a pooled HTTP client and
+ * a circuit breaker, and each API gets the load balancer configured for it under
+ * {@code api.gateway.load.balancing} and the bulkhead configured under
+ * {@code api.gateway.bulkhead}.
+ *
+ * This class is not thread safe, it must only be used from the gateway context.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class RoutingTable {
+
+  public static final String API_NAME = "api.name";
+
+  private final Vertx vertx;
+  private final JsonObject config;
+  private final JsonObject balancing;
+  private final JsonObject bulkheads;
+  private final Map<String, Route> routes = new HashMap<>();
+  private final Map<String, Backend> registrations = new HashMap<>();
+
+  public RoutingTable(Vertx vertx, JsonObject config) {
+    this.vertx = vertx;
+    this.config = config;
+    this.balancing = config.getJsonObject("api.gateway.load.balancing", new JsonObject());
+    this.bulkheads = config.getJsonObject("api.gateway.bulkhead", new JsonObject());
+  }
+
+  /**
+   * Add the given records to the table.
+   *
+   * @param records records retrieved from the service discovery
+   */
+  public void load(List<Record> records) {
+    records.forEach(this::announce);
+  }
+
+  /**
+   * Apply a record announced by the service discovery. A record with an
+   * {@code UP} status is added (or replaced), any other status removes it.
+   *
+   * @param record announced record
+   */
+  public void announce(Record record) {
+    if (!isRoutable(record)) {
+      return;
+    }
+
+    Backend previous = registrations.remove(record.getRegistration());
+    if (previous != null) {
+      remove(previous);
+    }
+    if (record.getStatus() == Status.UP) {
+      Backend backend = new Backend(vertx, record, config);
+      registrations.put(record.getRegistration(), backend);
+      add(backend);
+    }
+  }
+
+  /**
+   * Get the route of an API.
+   *
+   * @param apiName name of the API
+   * @return the route, or {@code null} if no backend serves the API
+   */
+  public Route lookup(String apiName) {
+    return routes.get(apiName);
+  }
+
+  /**
+   * @return the number of routed APIs
+   */
+  public int size() {
+    return routes.size();
+  }
+
+  /**
+   * @return the state of the bulkheads and circuit breakers of every route
+   */
+  public JsonObject toJson() {
+    JsonObject json = new JsonObject();
+    routes.forEach((apiName, route) -> json.put(apiName, route.toJson()));
+    return json;
+  }
+
+  /**
+   * Return the end index of the API name in {@code uri}, starting at {@code offset}.
+   * The API name ends at the first {@code /} or {@code ?}, or at the end of the uri.
+   *
+   * @param uri    request uri
+   * @param offset index of the first character of the API name
+   * @return end index (exclusive) of the API name
+   */
+  public static int apiNameEnd(String uri, int offset) {
+    int length = uri.length();
+    for (int i = offset; i < length; i++) {
+      char c = uri.charAt(i);
+      if (c == '/' || c == '?') {
+        return i;
+      }
+    }
+    return length;
+  }
+
+  private boolean isRoutable(Record record) {
+    return HttpEndpoint.TYPE.equals(record.getType())
+      && record.getRegistration() != null
+      && record.getMetadata() != null
+      && record.getMetadata().getString(API_NAME) != null;
+  }
+
+  private void add(Backend backend) {
+    String apiName = backend.getRecord().getMetadata().getString(API_NAME);
+    Route route = routes.get(apiName);
+    if (route == null) {
+      route = new Route(apiName, new ArrayList<>(), loadBalancer(apiName), bulkhead(apiName));
+    }
+    routes.put(apiName, route.with(backend));
+  }
+
+  private void remove(Backend backend) {
+    String apiName = backend.getRecord().getMetadata().getString(API_NAME);
+    Route route = routes.get(apiName);
+    if (route != null) {
+      route = route.without(backend);
+      if (route.getBackends().isEmpty()) {
+        routes.remove(apiName);
+      } else {
+        routes.put(apiName, route);
+      }
+    }
+    backend.retire();
+  }
+
+  private LoadBalancer loadBalancer(String apiName) {
+    String strategy = balancing.getString(apiName, balancing.getString("default", LoadBalancer.ROUND_ROBIN));
+    return LoadBalancer.create(strategy);
+  }
+
+  private Bulkhead bulkhead(String apiName) {
+    JsonObject options = bulkheads.getJsonObject(apiName, bulkheads.getJsonObject("default", new JsonObject()));
+    return new Bulkhead(options);
+  }
+}
@@ -0,0 +1,188 @@
+package com.fbellotti.microservice.gateway.session;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.Session;
+import io.vertx.ext.web.sstore.ClusteredSessionStore;
+import io.vertx.ext.web.sstore.SessionStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A session store backed by the clustered session store of the cluster manager,
+ * with a near-cache on each node. Sessions are read from the near-cache while
+ * they are fresh, and their updates are written behind: the sessions updated
+ * during {@code write.behind.delay} are written to the cluster at once, each
+ * session only once. Once a session is written or deleted, the other nodes are
+ * told to drop it from their near-cache.
+ *
+ * This class is not thread safe, it must only be used from the gateway context.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class NearCacheSessionStore implements SessionStore {
+
+  private static final Logger logger = LoggerFactory.getLogger(NearCacheSessionStore.class);
+
+  private static final String DEFAULT_INVALIDATION_ADDRESS = "gateway.session.invalidate";
+  private static final long DEFAULT_NEAR_CACHE_TTL = 5000;
+  private static final int DEFAULT_NEAR_CACHE_MAX_ENTRIES = 10000;
+  private static final long DEFAULT_WRITE_BEHIND_DELAY = 100;
+
+  private final Vertx vertx;
+  private final SessionStore delegate;
+  private final String node = UUID.randomUUID().toString();
+  private final String invalidationAddress;
+  private final long nearCacheTtl;
+  private final long writeBehindDelay;
+  private final Map<String, Entry> nearCache;
+  private final Map<String, Session> dirty = new LinkedHashMap<>();
+  private long flushTimer = -1;
+
+  public NearCacheSessionStore(Vertx vertx, JsonObject config) {
+    this.vertx = vertx;
+    this.delegate = ClusteredSessionStore.create(vertx,
+      config.getString("map.name", ClusteredSessionStore.DEFAULT_SESSION_MAP_NAME));
+    this.invalidationAddress = config.getString("invalidation.address", DEFAULT_INVALIDATION_ADDRESS);
+    this.nearCacheTtl = config.getLong("near.cache.ttl", DEFAULT_NEAR_CACHE_TTL);
+    this.writeBehindDelay = config.getLong("write.behind.delay", DEFAULT_WRITE_BEHIND_DELAY);
+    int maxEntries = config.getInteger("near.cache.max.entries", DEFAULT_NEAR_CACHE_MAX_ENTRIES);
+    this.nearCache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+
+    vertx.eventBus().<JsonObject>consumer(invalidationAddress, message -> {
+      if (!node.equals(message.body().getString("node"))) {
+        nearCache.remove(message.body().getString("id"));
+      }
+    });
+  }
+
+  @Override
+  public long retryTimeout() {
+    return delegate.retryTimeout();
+  }
+
+  @Override
+  public Session createSession(long timeout) {
+    return delegate.createSession(timeout);
+  }
+
+  @Override
+  public Session createSession(long timeout, int length) {
+    return delegate.createSession(timeout, length);
+  }
+
+  @Override
+  public void get(String id, Handler<AsyncResult<Session>> resultHandler) {
+    long now = System.currentTimeMillis();
+    Session pending = dirty.get(id);
+    if (pending != null) {
+      resultHandler.handle(Future.succeededFuture(pending));
+      return;
+    }
+    Entry entry = nearCache.get(id);
+    if (entry != null) {
+      if (entry.cachedAt + nearCacheTtl > now && entry.session.lastAccessed() + entry.session.timeout() > now) {
+        resultHandler.handle(Future.succeededFuture(entry.session));
+        return;
+      }
+      nearCache.remove(id);
+    }
+
+    delegate.get(id, ar -> {
+      if (ar.succeeded() && ar.result() != null) {
+        nearCache.put(id, new Entry(ar.result(), System.currentTimeMillis()));
+      }
+      resultHandler.handle(ar);
+    });
+  }
+
+  @Override
+  public void delete(String id, Handler<AsyncResult<Boolean>> resultHandler) {
+    nearCache.remove(id);
+    dirty.remove(id);
+    delegate.delete(id, ar -> {
+      invalidate(id);
+      resultHandler.handle(ar);
+    });
+  }
+
+  @Override
+  public void put(Session session, Handler<AsyncResult<Boolean>> resultHandler) {
+    nearCache.put(session.id(), new Entry(session, System.currentTimeMillis()));
+    dirty.put(session.id(), session);
+    if (flushTimer == -1) {
+      flushTimer = vertx.setTimer(writeBehindDelay, id -> flush());
+    }
+    resultHandler.handle(Future.succeededFuture(true));
+  }
+
+  @Override
+  public void clear(Handler<AsyncResult<Boolean>> resultHandler) {
+    nearCache.clear();
+    dirty.clear();
+    delegate.clear(resultHandler);
+  }
+
+  @Override
+  public void size(Handler<AsyncResult<Integer>> resultHandler) {
+    delegate.size(resultHandler);
+  }
+
+  @Override
+  public void close() {
+    if (flushTimer != -1) {
+      vertx.cancelTimer(flushTimer);
+    }
+    flush();
+    delegate.close();
+  }
+
+  /**
+   * Write the sessions updated since the last flush to the cluster.
+   */
+  private void flush() {
+    flushTimer = -1;
+    for (Session session : dirty.values()) {
+      delegate.put(session, ar -> {
+        if (ar.succeeded()) {
+          invalidate(session.id());
+        } else {
+          // the session was updated by another node, read it again next time
+          logger.warn("Unable to write session " + session.id() + ": " + ar.cause().getMessage());
+          nearCache.remove(session.id());
+        }
+      });
+    }
+    dirty.clear();
+  }
+
+  private void invalidate(String id) {
+    vertx.eventBus().publish(invalidationAddress, new JsonObject().put("id", id).put("node", node));
+  }
+
+  /**
+   * A session kept in the near-cache.
+   */
+  private static final class Entry {
+
+    private final Session session;
+    private final long cachedAt;
+
+    private Entry(Session session, long cachedAt) {
+      this.session = session;
+      this.cachedAt = cachedAt;
+    }
+  }
+}
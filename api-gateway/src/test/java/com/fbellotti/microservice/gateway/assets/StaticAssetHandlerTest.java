@@ -0,0 +1,115 @@
+package com.fbellotti.microservice.gateway.assets;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.ext.web.Router;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+@RunWith(VertxUnitRunner.class)
+public class StaticAssetHandlerTest {
+
+  @Rule
+  public TemporaryFolder webRoot = new TemporaryFolder();
+
+  private Vertx vertx;
+  private HttpClient client;
+  private int port;
+
+  @Before
+  public void prepare(TestContext context) throws IOException {
+    Files.write(webRoot.newFile("app.js").toPath(), "app".getBytes(StandardCharsets.UTF_8));
+    vertx = Vertx.vertx();
+    client = vertx.createHttpClient();
+  }
+
+  @Test
+  public void the_missing_files_do_not_evict_the_files_in_memory(TestContext context) {
+    listen(context, new JsonObject().put("max.entries", 1).put("missing.ttl", 60000L));
+    Async async = context.async();
+
+    get("/app.js").compose(status -> {
+      context.assertEquals(200, status);
+      Future<Integer> misses = Future.succeededFuture(404);
+      for (int i = 0; i < 10; i++) {
+        String path = "/missing-" + i + ".js";
+        misses = misses.compose(previous -> get(path));
+      }
+      return misses;
+    }).compose(status -> {
+      context.assertEquals(404, status);
+      // only served from memory from now on
+      context.assertTrue(new File(webRoot.getRoot(), "app.js").delete());
+      return get("/app.js");
+    }).setHandler(context.asyncAssertSuccess(status -> {
+      context.assertEquals(200, status);
+      async.complete();
+    }));
+  }
+
+  @Test
+  public void looks_up_a_missing_file_again_after_a_while(TestContext context) {
+    listen(context, new JsonObject().put("missing.ttl", 50L));
+    Async async = context.async();
+
+    get("/late.js").compose(status -> {
+      context.assertEquals(404, status);
+      try {
+        Files.write(new File(webRoot.getRoot(), "late.js").toPath(), "late".getBytes(StandardCharsets.UTF_8));
+      } catch (IOException e) {
+        return Future.failedFuture(e);
+      }
+      return get("/late.js");
+    }).compose(status -> {
+      context.assertEquals(404, status);
+      Future<Integer> later = Future.future();
+      vertx.setTimer(100, id -> get("/late.js").setHandler(later.completer()));
+      return later;
+    }).setHandler(context.asyncAssertSuccess(status -> {
+      context.assertEquals(200, status);
+      async.complete();
+    }));
+  }
+
+  private void listen(TestContext context, JsonObject config) {
+    config.put("web.root", webRoot.getRoot().getAbsolutePath()).put("precompressed", false);
+    Router router = Router.router(vertx);
+    router.route().handler(new StaticAssetHandler(vertx, config));
+    HttpServer server = vertx.createHttpServer().requestHandler(router::accept);
+    Async listening = context.async();
+    server.listen(0, "127.0.0.1", context.asyncAssertSuccess(s -> {
+      port = s.actualPort();
+      listening.complete();
+    }));
+    listening.awaitSuccess();
+  }
+
+  private Future<Integer> get(String path) {
+    Future<Integer> future = Future.future();
+    client.getNow(port, "127.0.0.1", path, response -> response.bodyHandler(body -> future.complete(response.statusCode())));
+    return future;
+  }
+
+  @After
+  public void finish(TestContext context) {
+    vertx.close(context.asyncAssertSuccess());
+  }
+}
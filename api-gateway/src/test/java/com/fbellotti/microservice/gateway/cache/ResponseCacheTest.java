@@ -0,0 +1,64 @@
+package com.fbellotti.microservice.gateway.cache;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class ResponseCacheTest {
+
+  @Test
+  public void invalidates_a_resource_for_every_user_and_query() {
+    ResponseCache cache = new ResponseCache(new JsonObject());
+    put(cache, "florian", "/events/1");
+    put(cache, "bob", "/events/1");
+    put(cache, "florian", "/events/1?fields=title");
+    put(cache, "florian", "/events/10");
+
+    cache.invalidate("event", "/events/1");
+
+    assertNull(cache.get("florian", "event", "/events/1"));
+    assertNull(cache.get("bob", "event", "/events/1"));
+    assertNull(cache.get("florian", "event", "/events/1?fields=title"));
+    assertNotNull(cache.get("florian", "event", "/events/10"));
+    assertEquals(1, cache.resources());
+  }
+
+  @Test
+  public void unindexes_the_evicted_responses() {
+    ResponseCache cache = new ResponseCache(new JsonObject().put("max.entries", 2));
+    put(cache, "florian", "/events/1");
+    put(cache, "florian", "/events/2");
+    put(cache, "florian", "/events/3");
+
+    assertNull(cache.get("florian", "event", "/events/1"));
+    assertEquals(2, cache.resources());
+  }
+
+  @Test
+  public void unindexes_the_expired_responses() throws InterruptedException {
+    ResponseCache cache = new ResponseCache(new JsonObject());
+    cache.put("florian", "event", "/events/1", 200,
+      MultiMap.caseInsensitiveMultiMap().set("cache-control", "max-age=0"), Buffer.buffer("{}"));
+    cache.put("florian", "event", "/events/2", 200, MultiMap.caseInsensitiveMultiMap(), Buffer.buffer("{}"));
+    assertEquals(0, cache.resources());
+
+    ResponseCache ttl = new ResponseCache(new JsonObject().put("ttl", new JsonObject().put("event", 1L)));
+    ttl.put("florian", "event", "/events/1", 200, MultiMap.caseInsensitiveMultiMap(), Buffer.buffer("{}"));
+    Thread.sleep(5);
+    assertNull(ttl.get("florian", "event", "/events/1"));
+    assertEquals(0, ttl.resources());
+  }
+
+  private static void put(ResponseCache cache, String user, String path) {
+    assertNotNull(cache.put(user, "event", path, 200,
+      MultiMap.caseInsensitiveMultiMap().set("cache-control", "max-age=60"), Buffer.buffer("{}")));
+  }
+}
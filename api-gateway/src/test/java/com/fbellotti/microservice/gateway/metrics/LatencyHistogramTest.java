@@ -0,0 +1,112 @@
+package com.fbellotti.microservice.gateway.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class LatencyHistogramTest {
+
+  @Test
+  public void small_values_have_their_own_bucket() {
+    for (long value = 0; value < 16; value++) {
+      assertEquals(value, LatencyHistogram.index(value));
+      assertEquals(value, LatencyHistogram.upperBound(LatencyHistogram.index(value)));
+    }
+  }
+
+  @Test
+  public void each_power_of_two_is_split_in_16_buckets() {
+    assertEquals(16, LatencyHistogram.index(16));
+    assertEquals(31, LatencyHistogram.index(31));
+    assertEquals(32, LatencyHistogram.index(32));
+    assertEquals(32, LatencyHistogram.index(33));
+    assertEquals(33, LatencyHistogram.index(34));
+    assertEquals(33, LatencyHistogram.upperBound(32));
+    assertEquals(959, LatencyHistogram.index(Long.MAX_VALUE));
+    assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBound(959));
+  }
+
+  @Test
+  public void buckets_bound_their_values_within_the_relative_error() {
+    int previous = -1;
+    for (long value = 1; value > 0 && value < Long.MAX_VALUE / 2; value = value * 5 / 4 + 1) {
+      int index = LatencyHistogram.index(value);
+      long upperBound = LatencyHistogram.upperBound(index);
+      assertTrue(index >= previous);
+      assertTrue(value <= upperBound);
+      assertTrue(index == 0 || value > LatencyHistogram.upperBound(index - 1));
+      assertTrue(upperBound - value <= value / 16);
+      previous = index;
+    }
+  }
+
+  @Test
+  public void computes_the_percentiles_in_microseconds() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.percentile(0.5));
+
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+    }
+    assertEquals(100, histogram.count());
+    assertEquals(5050000, histogram.sum());
+    assertWithin(50000, histogram.percentile(0.5));
+    assertWithin(99000, histogram.percentile(0.99));
+    assertWithin(100000, histogram.percentile(1.0));
+  }
+
+  @Test
+  public void recent_percentile_needs_the_minimum_count() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 5; i++) {
+      histogram.record(TimeUnit.MILLISECONDS.toNanos(10));
+    }
+
+    assertEquals(-1, histogram.recentPercentile(0.5, 10));
+    assertWithin(10000, histogram.recentPercentile(0.5, 5));
+  }
+
+  @Test
+  public void recent_percentile_forgets_the_latencies_older_than_the_window() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.recentPercentile(0.5, 1);
+    histogram.record(TimeUnit.SECONDS.toNanos(1));
+    histogram.rotate();
+    histogram.record(TimeUnit.MILLISECONDS.toNanos(10));
+
+    for (int i = 0; i < 4; i++) {
+      histogram.rotate();
+    }
+    assertWithin(1000000, histogram.recentPercentile(1.0, 1));
+
+    histogram.rotate();
+    assertWithin(10000, histogram.recentPercentile(1.0, 1));
+    assertWithin(1000000, histogram.percentile(1.0));
+
+    for (int i = 0; i < 6; i++) {
+      histogram.rotate();
+    }
+    assertEquals(-1, histogram.recentPercentile(1.0, 1));
+  }
+
+  @Test
+  public void rotates_nothing_until_a_recent_percentile_is_asked() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(TimeUnit.MILLISECONDS.toNanos(10));
+    for (int i = 0; i < 6; i++) {
+      histogram.rotate();
+    }
+
+    assertWithin(10000, histogram.recentPercentile(0.5, 1));
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    assertTrue(actual + " is not within 1/16 of " + expected, actual >= expected && actual - expected <= expected / 16);
+  }
+}
@@ -0,0 +1,57 @@
+package com.fbellotti.microservice.gateway.proxy;
+
+import com.fbellotti.microservice.gateway.metrics.GatewayMetrics;
+import com.fbellotti.microservice.gateway.metrics.Phase;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class HedgingPolicyTest {
+
+  @Test
+  public void only_hedges_the_idempotent_requests_of_the_hedged_apis() {
+    HedgingPolicy policy = new HedgingPolicy(new JsonObject().put("apis", new JsonArray().add("event")));
+
+    assertTrue(policy.accepts("event", HttpMethod.GET));
+    assertFalse(policy.accepts("event", HttpMethod.POST));
+    assertFalse(policy.accepts("user", HttpMethod.GET));
+  }
+
+  @Test
+  public void bounds_the_delay() {
+    HedgingPolicy policy = new HedgingPolicy(new JsonObject().put("min.delay", 10L).put("max.delay", 100L));
+
+    assertEquals(100, policy.delay(-1L));
+    assertEquals(10, policy.delay(TimeUnit.MILLISECONDS.toMicros(2)));
+    assertEquals(50, policy.delay(TimeUnit.MILLISECONDS.toMicros(50)));
+    assertEquals(100, policy.delay(TimeUnit.SECONDS.toMicros(2)));
+  }
+
+  @Test
+  public void refreshes_the_delays_from_the_recent_backend_latency() {
+    HedgingPolicy policy = new HedgingPolicy(new JsonObject().put("min.samples", 10L).put("quantile", 0.9));
+    GatewayMetrics metrics = new GatewayMetrics();
+
+    assertEquals(1000, policy.delay("event"));
+    for (int i = 0; i < 9; i++) {
+      metrics.recordPhase("event", Phase.BACKEND, TimeUnit.MILLISECONDS.toNanos(50));
+    }
+    policy.refresh(metrics);
+    assertEquals(1000, policy.delay("event"));
+
+    metrics.recordPhase("event", Phase.BACKEND, TimeUnit.MILLISECONDS.toNanos(50));
+    policy.refresh(metrics);
+    long delay = policy.delay("event");
+    assertTrue(delay + " is not the 50ms latency", delay >= 50 && delay <= 53);
+  }
+}
@@ -0,0 +1,46 @@
+package com.fbellotti.microservice.gateway.proxy;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class RequestCoalescerTest {
+
+  @Test
+  public void keys_the_requests_per_user_unless_the_api_is_shared() {
+    RequestCoalescer coalescer = new RequestCoalescer(new JsonObject().put("shared.apis", new JsonArray().add("project")));
+
+    assertEquals("florian|event/events?limit=10", coalescer.key("florian", "event", "/events?limit=10"));
+    assertEquals("project/projects", coalescer.key("florian", "project", "/projects"));
+  }
+
+  @Test
+  public void does_not_coalesce_the_conditional_requests() {
+    assertFalse(RequestCoalescer.isConditional(MultiMap.caseInsensitiveMultiMap().add("accept", "application/json")));
+    assertTrue(RequestCoalescer.isConditional(MultiMap.caseInsensitiveMultiMap().add("If-None-Match", "\"v1\"")));
+    assertTrue(RequestCoalescer.isConditional(MultiMap.caseInsensitiveMultiMap()
+      .add("if-modified-since", "Thu, 01 Jun 2017 09:00:00 GMT")));
+    assertTrue(RequestCoalescer.isConditional(MultiMap.caseInsensitiveMultiMap().add("range", "bytes=0-99")));
+  }
+
+  @Test
+  public void shares_the_backend_headers_without_cookies() {
+    MultiMap headers = RequestCoalescer.waiterHeaders(MultiMap.caseInsensitiveMultiMap()
+      .add("content-type", "application/json")
+      .add("Set-Cookie", "session=florian")
+      .add("connection", "keep-alive"));
+
+    assertEquals("application/json", headers.get("content-type"));
+    assertNull(headers.get("set-cookie"));
+    assertNull(headers.get("connection"));
+  }
+}
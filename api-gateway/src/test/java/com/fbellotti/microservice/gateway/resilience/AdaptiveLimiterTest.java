@@ -0,0 +1,95 @@
+package com.fbellotti.microservice.gateway.resilience;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class AdaptiveLimiterTest {
+
+  private static final long RTT = TimeUnit.MILLISECONDS.toNanos(10);
+
+  @Test
+  public void sheds_the_requests_over_the_limit() {
+    AdaptiveLimiter limiter = new AdaptiveLimiter(new JsonObject().put("initial.limit", 2));
+
+    assertTrue(limiter.hasCapacity(0));
+    assertTrue(limiter.hasCapacity(1));
+    assertFalse(limiter.hasCapacity(2));
+    assertEquals(1L, (long) limiter.toJson().getLong("shed"));
+  }
+
+  @Test
+  public void does_not_count_the_optional_requests_as_shed() {
+    AdaptiveLimiter limiter = new AdaptiveLimiter(new JsonObject().put("initial.limit", 2));
+
+    assertTrue(limiter.hasSpareCapacity(1));
+    assertFalse(limiter.hasSpareCapacity(2));
+    assertEquals(0L, (long) limiter.toJson().getLong("shed"));
+  }
+
+  @Test
+  public void grows_while_the_latency_is_stable() {
+    AdaptiveLimiter limiter = new AdaptiveLimiter(new JsonObject());
+
+    int previous = limit(limiter);
+    for (int i = 0; i < 10; i++) {
+      limiter.onSample(RTT, limit(limiter), false);
+    }
+    assertTrue(limit(limiter) > previous);
+
+    for (int i = 0; i < 1000; i++) {
+      limiter.onSample(RTT, limit(limiter), false);
+    }
+    assertEquals(200, limit(limiter));
+  }
+
+  @Test
+  public void does_not_grow_while_the_limit_is_unused() {
+    AdaptiveLimiter limiter = new AdaptiveLimiter(new JsonObject());
+
+    for (int i = 0; i < 100; i++) {
+      limiter.onSample(RTT, 5, false);
+    }
+    assertEquals(20, limit(limiter));
+  }
+
+  @Test
+  public void shrinks_when_the_latency_increases() {
+    AdaptiveLimiter limiter = new AdaptiveLimiter(new JsonObject());
+    for (int i = 0; i < 100; i++) {
+      limiter.onSample(RTT, limit(limiter), false);
+    }
+
+    int previous = limit(limiter);
+    for (int i = 0; i < 20; i++) {
+      limiter.onSample(10 * RTT, limit(limiter), false);
+    }
+    assertTrue(limit(limiter) < previous);
+  }
+
+  @Test
+  public void backs_off_on_failures_down_to_the_minimum() {
+    AdaptiveLimiter limiter = new AdaptiveLimiter(new JsonObject().put("min.limit", 2));
+
+    // 20 * 0.8 + 20 * 0.9 * 0.2
+    limiter.onSample(RTT, 0, true);
+    assertEquals(19, limit(limiter));
+
+    for (int i = 0; i < 1000; i++) {
+      limiter.onSample(RTT, 0, true);
+    }
+    assertEquals(2, limit(limiter));
+  }
+
+  private static int limit(AdaptiveLimiter limiter) {
+    return limiter.toJson().getInteger("limit");
+  }
+}
@@ -0,0 +1,71 @@
+package com.fbellotti.microservice.gateway.resilience;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class RateLimiterTest {
+
+  private Vertx vertx;
+  private RateLimiter limiter;
+
+  @Before
+  public void prepare() {
+    vertx = Vertx.vertx();
+    limiter = new RateLimiter(vertx, new JsonObject()
+      .put("default", new JsonObject().put("rate", 1.0).put("burst", 2))
+      .put("routes", new JsonObject().put("event", new JsonObject().put("rate", 1.0).put("burst", 5))));
+  }
+
+  @Test
+  public void limits_each_user_and_api_separately() {
+    assertEquals(0, limiter.acquire("florian", "user"));
+    assertEquals(0, limiter.acquire("florian", "user"));
+    assertTrue(limiter.acquire("florian", "user") > 0);
+
+    assertEquals(0, limiter.acquire("bob", "user"));
+    assertEquals(0, limiter.acquire("florian", "event"));
+
+    JsonObject status = limiter.toJson();
+    assertEquals(4L, (long) status.getLong("allowed"));
+    assertEquals(1L, (long) status.getLong("rejected"));
+    assertEquals(3, (int) status.getInteger("buckets"));
+  }
+
+  @Test
+  public void uses_the_limit_of_the_route() {
+    for (int i = 0; i < 5; i++) {
+      assertEquals(0, limiter.acquire("florian", "event"));
+    }
+    assertTrue(limiter.acquire("florian", "event") > 0);
+  }
+
+  @Test
+  public void takes_the_tokens_consumed_by_other_nodes() {
+    limiter.consumeRemote(new JsonObject().put("user:florian", 2));
+
+    assertTrue(limiter.acquire("florian", "user") > 0);
+    assertEquals(0, limiter.acquire("bob", "user"));
+  }
+
+  @Test
+  public void creates_the_buckets_of_other_nodes_with_the_limit_of_their_route() {
+    limiter.consumeRemote(new JsonObject().put("event:florian", 4));
+
+    assertEquals(0, limiter.acquire("florian", "event"));
+    assertTrue(limiter.acquire("florian", "event") > 0);
+  }
+
+  @After
+  public void finish() {
+    vertx.close();
+  }
+}
@@ -0,0 +1,75 @@
+package com.fbellotti.microservice.gateway.resilience;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class RetryBudgetTest {
+
+  @Test
+  public void spends_the_reserve_then_the_deposits() {
+    RetryBudget budget = new RetryBudget(new JsonObject().put("ratio", 0.5).put("min.per.second", 2));
+
+    assertTrue(budget.tryWithdraw());
+    assertTrue(budget.tryWithdraw());
+    assertFalse(budget.tryWithdraw());
+
+    budget.deposit();
+    assertFalse(budget.tryWithdraw());
+    budget.deposit();
+    assertTrue(budget.tryWithdraw());
+    assertEquals(new JsonObject().put("balance", 0.0).put("withdrawn", 3L).put("exhausted", 2L), budget.toJson());
+  }
+
+  @Test
+  public void bounds_the_balance() {
+    RetryBudget budget = new RetryBudget(new JsonObject().put("ratio", 1.0).put("min.per.second", 0)
+      .put("max.balance", 2));
+
+    for (int i = 0; i < 5; i++) {
+      budget.deposit();
+    }
+    assertTrue(budget.tryWithdraw());
+    assertTrue(budget.tryWithdraw());
+    assertFalse(budget.tryWithdraw());
+  }
+
+  @Test
+  public void is_shared_by_concurrent_threads() throws InterruptedException {
+    RetryBudget budget = new RetryBudget(new JsonObject().put("ratio", 0.1).put("min.per.second", 0)
+      .put("max.balance", 100000));
+    AtomicInteger withdrawn = new AtomicInteger();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      threads.add(new Thread(() -> {
+        for (int i = 0; i < 10000; i++) {
+          budget.deposit();
+          if (budget.tryWithdraw()) {
+            withdrawn.incrementAndGet();
+          }
+        }
+      }));
+    }
+    threads.forEach(Thread::start);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    // 4000 tokens deposited in all, each one withdrawn at most once
+    int remaining = 0;
+    while (budget.tryWithdraw()) {
+      remaining++;
+    }
+    assertEquals(4000, withdrawn.get() + remaining);
+  }
+}
@@ -0,0 +1,101 @@
+package com.fbellotti.microservice.gateway.resilience;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class TokenBucketTest {
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  public void allows_a_burst_then_waits_for_the_next_token() {
+    TokenBucket bucket = new TokenBucket(10, 3, 0);
+
+    for (int i = 0; i < 3; i++) {
+      assertEquals(0, bucket.tryAcquire(0));
+    }
+    assertEquals(SECOND / 10, bucket.tryAcquire(0));
+  }
+
+  @Test
+  public void refills_at_the_rate() {
+    TokenBucket bucket = new TokenBucket(10, 3, 0);
+    for (int i = 0; i < 3; i++) {
+      bucket.tryAcquire(0);
+    }
+
+    assertEquals(SECOND / 20, bucket.tryAcquire(SECOND / 20));
+    assertEquals(0, bucket.tryAcquire(SECOND / 10));
+    assertEquals(SECOND / 10, bucket.tryAcquire(SECOND / 10));
+  }
+
+  @Test
+  public void never_holds_more_than_the_burst() {
+    TokenBucket bucket = new TokenBucket(10, 3, 0);
+
+    for (int i = 0; i < 3; i++) {
+      assertEquals(0, bucket.tryAcquire(60 * SECOND));
+    }
+    assertTrue(bucket.tryAcquire(60 * SECOND) > 0);
+  }
+
+  @Test
+  public void rejected_requests_do_not_take_tokens() {
+    TokenBucket bucket = new TokenBucket(10, 1, 0);
+    bucket.tryAcquire(0);
+    bucket.tryAcquire(0);
+    bucket.tryAcquire(0);
+
+    assertEquals(0, bucket.tryAcquire(SECOND / 10));
+    assertEquals(2, bucket.drainConsumed());
+  }
+
+  @Test
+  public void remote_tokens_are_taken_from_the_bucket() {
+    TokenBucket bucket = new TokenBucket(10, 3, 0);
+
+    bucket.consume(2, 0);
+    assertEquals(0, bucket.tryAcquire(0));
+    assertEquals(SECOND / 10, bucket.tryAcquire(0));
+    // only the local tokens are published again
+    assertEquals(1, bucket.drainConsumed());
+  }
+
+  @Test
+  public void remote_tokens_may_exceed_the_burst() {
+    TokenBucket bucket = new TokenBucket(10, 3, 0);
+
+    bucket.consume(5, 0);
+    assertEquals(3 * SECOND / 10, bucket.tryAcquire(0));
+    assertEquals(0, bucket.tryAcquire(3 * SECOND / 10));
+  }
+
+  @Test
+  public void drains_the_consumed_tokens_once() {
+    TokenBucket bucket = new TokenBucket(10, 3, 0);
+    bucket.tryAcquire(0);
+    bucket.tryAcquire(0);
+
+    assertEquals(2, bucket.drainConsumed());
+    assertEquals(0, bucket.drainConsumed());
+  }
+
+  @Test
+  public void is_idle_once_unused_and_synchronized() {
+    TokenBucket bucket = new TokenBucket(10, 3, 0);
+    bucket.tryAcquire(SECOND);
+
+    assertFalse(bucket.isIdle(3 * SECOND, SECOND));
+    bucket.drainConsumed();
+    assertFalse(bucket.isIdle(SECOND, SECOND));
+    assertTrue(bucket.isIdle(3 * SECOND, SECOND));
+  }
+}
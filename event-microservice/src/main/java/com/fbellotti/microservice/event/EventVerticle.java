@@ -1,8 +1,11 @@
 package com.fbellotti.microservice.event;
 
+import com.fbellotti.microservice.event.codec.BinaryJsonMessageCodec;
 import com.fbellotti.microservice.event.database.EventDatabaseService;
 import com.fbellotti.microservice.event.database.EventDatabaseServiceImpl;
 import com.fbellotti.microservice.event.http.EventRestVerticle;
+import com.fbellotti.microservice.event.report.ReportService;
+import com.fbellotti.microservice.event.report.ReportServiceImpl;
 import com.fbellotti.vertx.api.BaseMicroserviceVerticle;
 import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
@@ -15,24 +18,35 @@ import static com.fbellotti.microservice.event.database.EventDatabaseService.*;
  */
 public class EventVerticle extends BaseMicroserviceVerticle {
 
-  private EventDatabaseService eventDatabaseService;
+  private EventDatabaseServiceImpl eventDatabaseService;
+  private ReportServiceImpl reportService;
 
   @Override
   public void start(Future<Void> future) throws Exception {
     super.start();
 
+    // the proxies of other nodes send their requests in binary
+    BinaryJsonMessageCodec.register(vertx.eventBus());
+
     eventDatabaseService = new EventDatabaseServiceImpl(vertx, config());
     ProxyHelper.registerService(EventDatabaseService.class, vertx, eventDatabaseService, SERVICE_ADDRESS);
-
-    // publish service and deploy REST verticle
-    publishEventBusService(SERVICE_NAME, SERVICE_ADDRESS, EventDatabaseService.class)
-      .compose(servicePublished -> deployRestVerticle(eventDatabaseService))
+    reportService = new ReportServiceImpl(vertx, config());
+    ProxyHelper.registerService(ReportService.class, vertx, reportService, ReportService.SERVICE_ADDRESS);
+
+    // create the indexes, convert the string dates, publish services and deploy REST verticle
+    eventDatabaseService.createIndexes()
+      .compose(indexed -> eventDatabaseService.migrateDates())
+      .compose(indexed -> reportService.createIndexes())
+      .compose(indexed -> publishEventBusService(SERVICE_NAME, SERVICE_ADDRESS, EventDatabaseService.class))
+      .compose(servicePublished -> publishEventBusService(ReportService.SERVICE_NAME, ReportService.SERVICE_ADDRESS,
+        ReportService.class))
+      .compose(servicePublished -> deployRestVerticle(eventDatabaseService, reportService))
       .setHandler(future.completer());
   }
 
-  private Future<Void> deployRestVerticle(EventDatabaseService service) {
+  private Future<Void> deployRestVerticle(EventDatabaseService service, ReportService reportService) {
     Future<String> future = Future.future();
-    vertx.deployVerticle(new EventRestVerticle(service),
+    vertx.deployVerticle(new EventRestVerticle(service, reportService, eventDatabaseService.getCache()),
       new DeploymentOptions().setConfig(config()),
       future.completer());
     return future.map(r -> null);
@@ -0,0 +1,253 @@
+package com.fbellotti.microservice.event.codec;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.MessageCodec;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary event bus codec of the JSON objects exchanged with the event services.
+ * A value is written as a one byte type followed by its binary form: numbers are
+ * not printed and parsed, and lengths are written as variable length integers.
+ * The requests of the proxies created by
+ * {@link com.fbellotti.microservice.event.database.EventDatabaseService#createProxy}, with
+ * their event and operation lists, use this codec. The codec must be registered with
+ * {@link #register(EventBus)} on the sending and on the receiving nodes; local
+ * messages are copied, not encoded. The generated service handler replies with the
+ * built-in JSON codecs, the event bus always uses them for JSON replies.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class BinaryJsonMessageCodec implements MessageCodec<JsonObject, JsonObject> {
+
+  public static final String NAME = "event-binary-json";
+
+  private static final byte NULL = 0;
+  private static final byte FALSE = 1;
+  private static final byte TRUE = 2;
+  private static final byte INT = 3;
+  private static final byte LONG = 4;
+  private static final byte FLOAT = 5;
+  private static final byte DOUBLE = 6;
+  private static final byte STRING = 7;
+  private static final byte BINARY = 8;
+  private static final byte INSTANT = 9;
+  private static final byte OBJECT = 10;
+  private static final byte ARRAY = 11;
+
+  /**
+   * Register the codec on an event bus, if it is not registered yet.
+   *
+   * @param eventBus event bus of the node
+   */
+  public static void register(EventBus eventBus) {
+    try {
+      eventBus.registerCodec(new BinaryJsonMessageCodec());
+    } catch (IllegalStateException e) {
+      // already registered by another verticle of the node
+    }
+  }
+
+  @Override
+  public void encodeToWire(Buffer buffer, JsonObject json) {
+    int lengthPos = buffer.length();
+    buffer.appendInt(0);
+    writeObject(buffer, json);
+    buffer.setInt(lengthPos, buffer.length() - lengthPos - 4);
+  }
+
+  @Override
+  public JsonObject decodeFromWire(int pos, Buffer buffer) {
+    int length = buffer.getInt(pos);
+    Reader reader = new Reader(buffer, pos + 4);
+    JsonObject json = readObject(reader);
+    if (reader.pos != pos + 4 + length) {
+      throw new IllegalStateException("Invalid binary JSON: " + (reader.pos - pos - 4) + " bytes read, " + length
+        + " expected");
+    }
+    return json;
+  }
+
+  @Override
+  public JsonObject transform(JsonObject json) {
+    return json.copy();
+  }
+
+  @Override
+  public String name() {
+    return NAME;
+  }
+
+  @Override
+  public byte systemCodecID() {
+    return -1;
+  }
+
+  private static void writeObject(Buffer buffer, JsonObject json) {
+    writeSize(buffer, json.size());
+    for (Map.Entry<String, Object> entry : json) {
+      writeString(buffer, entry.getKey());
+      writeValue(buffer, entry.getValue());
+    }
+  }
+
+  private static void writeArray(Buffer buffer, JsonArray array) {
+    writeSize(buffer, array.size());
+    for (Object value : array) {
+      writeValue(buffer, value);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void writeValue(Buffer buffer, Object value) {
+    if (value == null) {
+      buffer.appendByte(NULL);
+    } else if (value instanceof String) {
+      buffer.appendByte(STRING);
+      writeString(buffer, (String) value);
+    } else if (value instanceof Boolean) {
+      buffer.appendByte((Boolean) value ? TRUE : FALSE);
+    } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      buffer.appendByte(INT).appendInt(((Number) value).intValue());
+    } else if (value instanceof Long) {
+      buffer.appendByte(LONG).appendLong((Long) value);
+    } else if (value instanceof Float) {
+      buffer.appendByte(FLOAT).appendFloat((Float) value);
+    } else if (value instanceof Number) {
+      buffer.appendByte(DOUBLE).appendDouble(((Number) value).doubleValue());
+    } else if (value instanceof JsonObject) {
+      buffer.appendByte(OBJECT);
+      writeObject(buffer, (JsonObject) value);
+    } else if (value instanceof Map) {
+      buffer.appendByte(OBJECT);
+      writeObject(buffer, new JsonObject((Map<String, Object>) value));
+    } else if (value instanceof JsonArray) {
+      buffer.appendByte(ARRAY);
+      writeArray(buffer, (JsonArray) value);
+    } else if (value instanceof List) {
+      buffer.appendByte(ARRAY);
+      writeArray(buffer, new JsonArray((List) value));
+    } else if (value instanceof byte[]) {
+      buffer.appendByte(BINARY);
+      writeSize(buffer, ((byte[]) value).length);
+      buffer.appendBytes((byte[]) value);
+    } else if (value instanceof Instant) {
+      buffer.appendByte(INSTANT).appendLong(((Instant) value).getEpochSecond()).appendInt(((Instant) value).getNano());
+    } else {
+      throw new IllegalStateException("Illegal type in JSON object: " + value.getClass());
+    }
+  }
+
+  private static void writeString(Buffer buffer, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeSize(buffer, bytes.length);
+    buffer.appendBytes(bytes);
+  }
+
+  /**
+   * Write a size as a variable length integer, seven bits per byte.
+   */
+  private static void writeSize(Buffer buffer, int size) {
+    while ((size & ~0x7F) != 0) {
+      buffer.appendByte((byte) ((size & 0x7F) | 0x80));
+      size >>>= 7;
+    }
+    buffer.appendByte((byte) size);
+  }
+
+  private static JsonObject readObject(Reader reader) {
+    int size = reader.readSize();
+    JsonObject json = new JsonObject();
+    for (int i = 0; i < size; i++) {
+      String key = reader.readString();
+      json.put(key, readValue(reader));
+    }
+    return json;
+  }
+
+  private static JsonArray readArray(Reader reader) {
+    int size = reader.readSize();
+    JsonArray array = new JsonArray();
+    for (int i = 0; i < size; i++) {
+      array.add(readValue(reader));
+    }
+    return array;
+  }
+
+  private static Object readValue(Reader reader) {
+    byte type = reader.buffer.getByte(reader.pos++);
+    switch (type) {
+      case NULL:
+        return null;
+      case FALSE:
+        return false;
+      case TRUE:
+        return true;
+      case INT:
+        reader.pos += 4;
+        return reader.buffer.getInt(reader.pos - 4);
+      case LONG:
+        reader.pos += 8;
+        return reader.buffer.getLong(reader.pos - 8);
+      case FLOAT:
+        reader.pos += 4;
+        return reader.buffer.getFloat(reader.pos - 4);
+      case DOUBLE:
+        reader.pos += 8;
+        return reader.buffer.getDouble(reader.pos - 8);
+      case STRING:
+        return reader.readString();
+      case BINARY:
+        int length = reader.readSize();
+        reader.pos += length;
+        return reader.buffer.getBytes(reader.pos - length, reader.pos);
+      case INSTANT:
+        reader.pos += 12;
+        return Instant.ofEpochSecond(reader.buffer.getLong(reader.pos - 12), reader.buffer.getInt(reader.pos - 4));
+      case OBJECT:
+        return readObject(reader);
+      case ARRAY:
+        return readArray(reader);
+      default:
+        throw new IllegalStateException("Unknown type in binary JSON: " + type);
+    }
+  }
+
+  /**
+   * Position in a buffer being decoded.
+   */
+  private static final class Reader {
+
+    private final Buffer buffer;
+    private int pos;
+
+    private Reader(Buffer buffer, int pos) {
+      this.buffer = buffer;
+      this.pos = pos;
+    }
+
+    private int readSize() {
+      int size = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = buffer.getByte(pos++);
+        size |= (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      return size;
+    }
+
+    private String readString() {
+      int length = readSize();
+      pos += length;
+      return buffer.getString(pos - length, pos, "UTF-8");
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package com.fbellotti.microservice.event.database;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read-through cache of the retrieved events, bounded by the size of its entries.
+ * An entry is the event encoded as the REST API sends it, so a cached event is
+ * sent without being serialized again.
+ *
+ * When an event is updated or deleted, its entry is removed on every node through
+ * a broadcast on {@code invalidation.address}. A read started before an
+ * invalidation does not fill the cache, so a stale event is never cached for long.
+ *
+ * The cache is shared by the service and REST verticles, so it is thread safe.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class EventCache {
+
+  private static final String DEFAULT_INVALIDATION_ADDRESS = "event.cache.invalidate";
+  private static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+  private final Vertx vertx;
+  private final String invalidationAddress;
+  private final long maxBytes;
+  private final Map<String, Buffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes;
+  private long version;
+  private long hits;
+  private long misses;
+
+  public EventCache(Vertx vertx, JsonObject config) {
+    this.vertx = vertx;
+    this.invalidationAddress = config.getString("invalidation.address", DEFAULT_INVALIDATION_ADDRESS);
+    this.maxBytes = config.getLong("max.bytes", DEFAULT_MAX_BYTES);
+
+    vertx.eventBus().<String>consumer(invalidationAddress, message -> remove(message.body()));
+  }
+
+  /**
+   * @param id id of the event
+   * @return the encoded event, or {@code null} if it is not cached
+   */
+  public synchronized Buffer get(String id) {
+    Buffer entry = entries.get(id);
+    if (entry == null) {
+      misses++;
+    } else {
+      hits++;
+    }
+    return entry;
+  }
+
+  /**
+   * Look up an event before reading it through the service. Only a hit is
+   * counted, a miss is counted by the read that follows.
+   *
+   * @param id id of the event
+   * @return the encoded event, or {@code null} if it is not cached
+   */
+  public synchronized Buffer peek(String id) {
+    Buffer entry = entries.get(id);
+    if (entry != null) {
+      hits++;
+    }
+    return entry;
+  }
+
+  /**
+   * @return the version to give to {@link #put(String, JsonObject, long)} once the event is read
+   */
+  public synchronized long version() {
+    return version;
+  }
+
+  /**
+   * Cache an event read from the database, unless an event was invalidated since
+   * the read started.
+   *
+   * @param id      id of the event
+   * @param event   event data object
+   * @param version version of the cache when the read started
+   */
+  public synchronized void put(String id, JsonObject event, long version) {
+    if (version != this.version) {
+      return;
+    }
+    Buffer entry = event.toBuffer();
+    if (entry.length() > maxBytes) {
+      return;
+    }
+    Buffer previous = entries.put(id, entry);
+    if (previous != null) {
+      bytes -= previous.length();
+    }
+    bytes += entry.length();
+    while (bytes > maxBytes) {
+      Map.Entry<String, Buffer> eldest = entries.entrySet().iterator().next();
+      bytes -= eldest.getValue().length();
+      entries.remove(eldest.getKey());
+    }
+  }
+
+  /**
+   * Remove an event from the cache of every node.
+   *
+   * @param id id of the updated or deleted event
+   */
+  public void invalidate(String id) {
+    remove(id);
+    vertx.eventBus().publish(invalidationAddress, id);
+  }
+
+  public synchronized JsonObject toJson() {
+    long requests = hits + misses;
+    return new JsonObject()
+      .put("entries", entries.size())
+      .put("bytes", bytes)
+      .put("maxBytes", maxBytes)
+      .put("hits", hits)
+      .put("misses", misses)
+      .put("hitRatio", requests == 0 ? 0.0 : (double) hits / requests);
+  }
+
+  private synchronized void remove(String id) {
+    version++;
+    Buffer entry = entries.remove(id);
+    if (entry != null) {
+      bytes -= entry.length();
+    }
+  }
+}
@@ -1,10 +1,15 @@
 package com.fbellotti.microservice.event.database;
 
+import com.fbellotti.microservice.event.codec.BinaryJsonMessageCodec;
+import com.fbellotti.microservice.event.model.Event;
 import io.vertx.codegen.annotations.Fluent;
 import io.vertx.codegen.annotations.ProxyGen;
 import io.vertx.codegen.annotations.VertxGen;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
 /**
@@ -30,11 +35,11 @@ public interface EventDatabaseService {
   /**
    * Save an event into the persistence.
    *
-   * @param event         event data object
+   * @param event         event data object, already validated
    * @param resultHandler async result handler
    */
   @Fluent
-  EventDatabaseService createEvent(JsonObject event, Handler<AsyncResult<JsonObject>> resultHandler);
+  EventDatabaseService createEvent(Event event, Handler<AsyncResult<JsonObject>> resultHandler);
 
   /**
    * Retrieve the event with a certain {@code id}.
@@ -45,15 +50,28 @@ public interface EventDatabaseService {
   @Fluent
   EventDatabaseService retrieveEvent(String id, Handler<AsyncResult<JsonObject>> resultHandler);
 
+  /**
+   * Retrieve one page of the events matching a query, by start date. The criteria are
+   * {@code from} and {@code to} (ISO-8601 dates, events overlapping the interval),
+   * {@code projectCode}, {@code owner}, {@code limit} (page size) and {@code after},
+   * the cursor of the page returned by the previous call.
+   *
+   * @param query         query criteria
+   * @param resultHandler async result handler, with the {@code events} of the page and
+   *                      the {@code next} cursor if there are more events
+   */
+  @Fluent
+  EventDatabaseService queryEvents(JsonObject query, Handler<AsyncResult<JsonObject>> resultHandler);
+
   /**
    * Update the event with a certain {@code id}.
    *
    * @param id            event id
-   * @param event         event data object
+   * @param event         event data object, already validated
    * @param resultHandler async result handler
    */
   @Fluent
-  EventDatabaseService updateEvent(String id, JsonObject event, Handler<AsyncResult<JsonObject>> resultHandler);
+  EventDatabaseService updateEvent(String id, Event event, Handler<AsyncResult<JsonObject>> resultHandler);
 
   /**
    * Delete the event with a certain {@code id}.
@@ -64,4 +82,34 @@ public interface EventDatabaseService {
   @Fluent
   EventDatabaseService deleteEvent(String id, Handler<AsyncResult<Void>> resultHandler);
 
+  /**
+   * Create, update and delete events at once. Each operation is an object with an
+   * {@code op} ({@code create}, {@code update} or {@code delete}), the {@code id} of the
+   * updated or deleted event and the {@code event} data object of the created or updated event.
+   * The result of each operation is an object with its {@code index}, an HTTP-like
+   * {@code status}, the {@code id} of the event and an {@code error} message if it failed.
+   * An event can only be updated or deleted by one operation of a bulk, the following
+   * ones fail with a {@code 409} status.
+   *
+   * @param operations    bulk operations
+   * @param resultHandler async result handler, with the results in the order of the operations
+   */
+  @Fluent
+  EventDatabaseService bulkEvents(JsonArray operations, Handler<AsyncResult<JsonArray>> resultHandler);
+
+  /**
+   * Create a proxy of the service, for the consumers of other cluster nodes: its
+   * requests are encoded with the {@link BinaryJsonMessageCodec}, registered on the
+   * event bus of the consumer by this method.
+   *
+   * @param vertx   Vert.x instance of the consumer
+   * @param address address of the service
+   * @return the proxy
+   */
+  static EventDatabaseService createProxy(Vertx vertx, String address) {
+    BinaryJsonMessageCodec.register(vertx.eventBus());
+    return new EventDatabaseServiceVertxEBProxy(vertx, address,
+      new DeliveryOptions().setCodecName(BinaryJsonMessageCodec.NAME));
+  }
+
 }
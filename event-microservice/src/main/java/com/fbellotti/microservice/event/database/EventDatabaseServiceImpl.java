@@ -1,31 +1,194 @@
 package com.fbellotti.microservice.event.database;
 
+import com.fbellotti.microservice.event.model.Event;
+import com.fbellotti.microservice.event.model.EventDates;
+import com.fbellotti.microservice.event.report.ActivityRollups;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.mongo.BulkOperation;
+import io.vertx.ext.mongo.BulkWriteOptions;
+import io.vertx.ext.mongo.FindOptions;
 import io.vertx.ext.mongo.MongoClient;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
+ * Event storage in the {@code event} Mongo collection. Event dates are stored
+ * as Mongo dates, and the collection is indexed for the event queries. Every
+ * written event updates the {@link ActivityRollups} once it is stored. The
+ * retrieved events are kept in an {@link EventCache}, configured under
+ * {@code event.cache}. When {@code event.create.batch} is configured, the
+ * created events are inserted in bulk by an {@link EventInsertBatcher}.
+ *
  * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
  */
 public class EventDatabaseServiceImpl implements EventDatabaseService {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(EventDatabaseServiceImpl.class);
   private static final String COLLECTION = "event";
+  private static final int DUPLICATE_KEY = 11000;
+  private static final int MIGRATION_PAGE = 100;
+
+  private static final JsonObject ROLLUP_FIELDS = new JsonObject()
+    .put(EventDates.START_DATE, 1).put(EventDates.END_DATE, 1).put("owner", 1).put("projectCode", 1);
 
   private final MongoClient mongo;
+  private final ActivityRollups rollups;
+  private final EventCache cache;
+  private final EventInsertBatcher batcher;
+  private final long maxDuration;
 
   public EventDatabaseServiceImpl(Vertx vertx, JsonObject config) {
     this.mongo = MongoClient.createNonShared(vertx, config);
+    this.rollups = new ActivityRollups(mongo, config);
+    this.cache = new EventCache(vertx, config.getJsonObject("event.cache", new JsonObject()));
+    this.maxDuration = Event.maxDuration(config);
+    JsonObject batch = config.getJsonObject("event.create.batch");
+    this.batcher = batch == null ? null : new EventInsertBatcher(vertx, mongo, COLLECTION, batch, inserted -> {
+      List<JsonObject[]> changes = new ArrayList<>(inserted.size());
+      inserted.forEach(document -> changes.add(new JsonObject[]{null, document}));
+      rollups.updateAll(changes, this::rollupsUpdated);
+    });
+  }
+
+  /**
+   * @return the cache of the retrieved events
+   */
+  public EventCache getCache() {
+    return cache;
+  }
+
+  /**
+   * Create the indexes of the event queries, if they do not exist yet.
+   *
+   * @return Async result
+   */
+  public Future<Void> createIndexes() {
+    List<Future> futures = new ArrayList<>();
+    for (JsonObject index : EventQuery.INDEXES) {
+      Future<Void> future = Future.future();
+      mongo.createIndex(COLLECTION, index, future.completer());
+      futures.add(future);
+    }
+    return CompositeFuture.all(futures).map(r -> null);
+  }
+
+  /**
+   * Convert the ISO-8601 string dates of the events stored before the dates
+   * were Mongo dates: the range queries, the keyset pages and the rollups only
+   * see Mongo dates. The events are read by pages in the order of their ids,
+   * and each converted event is added to the rollups, which skipped it. An
+   * event is only converted if its dates did not change meanwhile, so nodes
+   * starting together do not count it twice.
+   *
+   * @return Async result
+   */
+  public Future<Void> migrateDates() {
+    Future<Void> future = Future.future();
+    migrateDates(null, future);
+    return future;
+  }
+
+  private void migrateDates(Object after, Future<Void> future) {
+    JsonObject query = new JsonObject().put("$or", new JsonArray()
+      .add(new JsonObject().put(EventDates.START_DATE, new JsonObject().put("$type", "string")))
+      .add(new JsonObject().put(EventDates.END_DATE, new JsonObject().put("$type", "string"))));
+    if (after != null) {
+      query.put("_id", new JsonObject().put("$gt", after));
+    }
+    FindOptions options = new FindOptions()
+      .setFields(ROLLUP_FIELDS)
+      .setSort(new JsonObject().put("_id", 1))
+      .setLimit(MIGRATION_PAGE);
+    mongo.findWithOptions(COLLECTION, query, options, res -> {
+      if (res.failed()) {
+        future.fail(res.cause());
+        return;
+      }
+      List<JsonObject> documents = res.result();
+      List<Future> futures = new ArrayList<>();
+      for (JsonObject document : documents) {
+        futures.add(migrateDates(document));
+      }
+      CompositeFuture.all(futures).setHandler(migrated -> {
+        if (migrated.failed()) {
+          future.fail(migrated.cause());
+        } else if (documents.size() < MIGRATION_PAGE) {
+          future.complete();
+        } else {
+          migrateDates(documents.get(documents.size() - 1).getValue("_id"), future);
+        }
+      });
+    });
+  }
+
+  private Future<Void> migrateDates(JsonObject document) {
+    Future<Void> future = Future.future();
+    JsonObject migrated;
+    try {
+      migrated = EventDocuments.toDocument(document);
+    } catch (IllegalArgumentException e) {
+      LOGGER.warn("Unable to convert the dates of the event " + document.getValue("_id") + ": " + e.getMessage());
+      return Future.succeededFuture();
+    }
+
+    JsonObject query = new JsonObject().put("_id", document.getValue("_id"));
+    JsonObject dates = new JsonObject();
+    for (String field : Arrays.asList(EventDates.START_DATE, EventDates.END_DATE)) {
+      if (document.getValue(field) != null) {
+        query.put(field, document.getValue(field));
+        dates.put(field, migrated.getValue(field));
+      }
+    }
+    mongo.updateCollection(COLLECTION, query, new JsonObject().put("$set", dates), res -> {
+      if (res.failed()) {
+        future.fail(res.cause());
+        return;
+      }
+      if (res.result().getDocModified() == 1) {
+        updateRollups(null, migrated);
+      }
+      future.complete();
+    });
+    return future;
   }
 
   @Override
-  public EventDatabaseService createEvent(JsonObject event, Handler<AsyncResult<JsonObject>> resultHandler) {
-    mongo.save(COLLECTION, event, res -> {
+  public EventDatabaseService createEvent(Event event, Handler<AsyncResult<JsonObject>> resultHandler) {
+    JsonObject document = EventDocuments.toDocument(event);
+    if (batcher != null) {
+      batcher.insert(document, res -> {
+        if (res.succeeded()) {
+          event.setId(res.result());
+          resultHandler.handle(Future.succeededFuture(event.toJson()));
+        } else {
+          resultHandler.handle(Future.failedFuture(res.cause()));
+        }
+      });
+      return this;
+    }
+    mongo.save(COLLECTION, document, res -> {
       if (res.succeeded()) {
-        event.put("id", res.result());
-        resultHandler.handle(Future.succeededFuture(event));
+        updateRollups(null, document);
+        event.setId(res.result());
+        resultHandler.handle(Future.succeededFuture(event.toJson()));
       } else {
         resultHandler.handle(Future.failedFuture(res.cause()));
       }
@@ -35,13 +198,22 @@ public class EventDatabaseServiceImpl implements EventDatabaseService {
 
   @Override
   public EventDatabaseService retrieveEvent(String id, Handler<AsyncResult<JsonObject>> resultHandler) {
+    Buffer cached = cache.get(id);
+    if (cached != null) {
+      resultHandler.handle(Future.succeededFuture(new JsonObject(cached)));
+      return this;
+    }
+
+    long version = cache.version();
     JsonObject query = new JsonObject().put("_id", id);
     mongo.find(COLLECTION, query, res -> {
       if (res.succeeded()) {
         if (res.result() == null || res.result().isEmpty()) {
           resultHandler.handle(Future.succeededFuture());
         } else {
-          resultHandler.handle(Future.succeededFuture(res.result().get(0)));
+          JsonObject event = EventDocuments.fromDocument(res.result().get(0));
+          cache.put(id, event, version);
+          resultHandler.handle(Future.succeededFuture(event));
         }
       } else {
         resultHandler.handle(Future.failedFuture(res.cause()));
@@ -51,12 +223,37 @@ public class EventDatabaseServiceImpl implements EventDatabaseService {
   }
 
   @Override
-  public EventDatabaseService updateEvent(String id, JsonObject event, Handler<AsyncResult<JsonObject>> resultHandler) {
+  public EventDatabaseService queryEvents(JsonObject query, Handler<AsyncResult<JsonObject>> resultHandler) {
+    EventQuery eventQuery;
+    try {
+      eventQuery = new EventQuery(query, maxDuration);
+    } catch (IllegalArgumentException e) {
+      resultHandler.handle(Future.failedFuture(e));
+      return this;
+    }
+    mongo.findWithOptions(COLLECTION, eventQuery.getFilter(), eventQuery.getOptions(), res -> {
+      if (res.succeeded()) {
+        resultHandler.handle(Future.succeededFuture(eventQuery.page(res.result())));
+      } else {
+        resultHandler.handle(Future.failedFuture(res.cause()));
+      }
+    });
+    return this;
+  }
+
+  @Override
+  public EventDatabaseService updateEvent(String id, Event event, Handler<AsyncResult<JsonObject>> resultHandler) {
     JsonObject query = new JsonObject().put("_id", id);
-    JsonObject set = new JsonObject().put("$set", event);
-    mongo.updateCollection(COLLECTION, query, set, res -> {
+    JsonObject document = EventDocuments.toDocument(event);
+    JsonObject set = new JsonObject().put("$set", document);
+    // the previous version of the event is returned to update the rollups
+    mongo.findOneAndUpdate(COLLECTION, query, set, res -> {
       if (res.succeeded()) {
-        resultHandler.handle(Future.succeededFuture(event));
+        cache.invalidate(id);
+        if (res.result() != null) {
+          updateRollups(res.result(), res.result().copy().mergeIn(document));
+        }
+        resultHandler.handle(Future.succeededFuture(event.toJson()));
       } else {
         resultHandler.handle(Future.failedFuture(res.cause()));
       }
@@ -67,8 +264,12 @@ public class EventDatabaseServiceImpl implements EventDatabaseService {
   @Override
   public EventDatabaseService deleteEvent(String id, Handler<AsyncResult<Void>> resultHandler) {
     JsonObject query = new JsonObject().put("_id", id);
-    mongo.removeDocument(COLLECTION, query, res -> {
+    mongo.findOneAndDelete(COLLECTION, query, res -> {
       if (res.succeeded()) {
+        cache.invalidate(id);
+        if (res.result() != null) {
+          updateRollups(res.result(), null);
+        }
         resultHandler.handle(Future.succeededFuture());
       } else {
         resultHandler.handle(Future.failedFuture(res.cause()));
@@ -76,4 +277,270 @@ public class EventDatabaseServiceImpl implements EventDatabaseService {
     });
     return this;
   }
+
+  @Override
+  public EventDatabaseService bulkEvents(JsonArray operations, Handler<AsyncResult<JsonArray>> resultHandler) {
+    JsonObject[] results = new JsonObject[operations.size()];
+    List<Integer> indexes = new ArrayList<>();
+    List<BulkOperation> bulk = toBulkOperations(operations, maxDuration, results, indexes);
+
+    // the updated and deleted events must exist, they are all looked up at once
+    Set<String> targets = new HashSet<>();
+    for (int i = 0; i < bulk.size(); i++) {
+      if (bulk.get(i).getType() != BulkOperation.BulkOperationType.INSERT) {
+        targets.add(results[indexes.get(i)].getString("id"));
+      }
+    }
+    Future<Map<String, JsonObject>> existing = Future.future();
+    if (targets.isEmpty()) {
+      existing.complete(new HashMap<>());
+    } else {
+      JsonObject query = new JsonObject().put("_id", new JsonObject().put("$in", new JsonArray(new ArrayList<>(targets))));
+      mongo.findWithOptions(COLLECTION, query, new FindOptions().setFields(ROLLUP_FIELDS), res -> {
+        if (res.succeeded()) {
+          Map<String, JsonObject> documents = new HashMap<>();
+          res.result().forEach(document -> documents.put(document.getString("_id"), document));
+          existing.complete(documents);
+        } else {
+          existing.fail(res.cause());
+        }
+      });
+    }
+
+    existing.setHandler(found -> {
+      if (found.failed()) {
+        resultHandler.handle(Future.failedFuture(found.cause()));
+        return;
+      }
+      List<Integer> sentIndexes = new ArrayList<>();
+      List<BulkOperation> sent = new ArrayList<>();
+      for (int i = 0; i < bulk.size(); i++) {
+        int index = indexes.get(i);
+        if (bulk.get(i).getType() == BulkOperation.BulkOperationType.INSERT
+          || found.result().containsKey(results[index].getString("id"))) {
+          sentIndexes.add(index);
+          sent.add(bulk.get(i));
+        } else {
+          results[index] = error(index, 404, "Event not found.").put("id", results[index].getString("id"));
+        }
+      }
+      if (sent.isEmpty()) {
+        resultHandler.handle(Future.succeededFuture(new JsonArray(Arrays.asList((Object[]) results))));
+        return;
+      }
+
+      // unordered, so a failed operation does not prevent the following ones
+      mongo.bulkWriteWithOptions(COLLECTION, sent, new BulkWriteOptions(false), res -> {
+        if (res.failed() && !(res.cause() instanceof MongoBulkWriteException)) {
+          resultHandler.handle(Future.failedFuture(res.cause()));
+          return;
+        }
+        long deleted;
+        long matched;
+        if (res.failed()) {
+          MongoBulkWriteException exception = (MongoBulkWriteException) res.cause();
+          writeErrors(exception, sentIndexes, results);
+          deleted = exception.getWriteResult().getDeletedCount();
+          matched = exception.getWriteResult().getMatchedCount();
+        } else {
+          deleted = res.result().getDeletedCount();
+          matched = res.result().getMatchedCount();
+        }
+        Set<BulkOperation.BulkOperationType> unknown = new HashSet<>();
+        if (!matched(BulkOperation.BulkOperationType.DELETE, deleted, sent, sentIndexes, results)) {
+          unknown.add(BulkOperation.BulkOperationType.DELETE);
+        }
+        if (!matched(BulkOperation.BulkOperationType.UPDATE, matched, sent, sentIndexes, results)) {
+          unknown.add(BulkOperation.BulkOperationType.UPDATE);
+        }
+
+        List<JsonObject[]> changes = new ArrayList<>();
+        for (int i = 0; i < sent.size(); i++) {
+          JsonObject result = results[sentIndexes.get(i)];
+          if (sent.get(i).getType() != BulkOperation.BulkOperationType.INSERT) {
+            cache.invalidate(result.getString("id"));
+          }
+          if (result.getInteger("status") < 300 && !unknown.contains(sent.get(i).getType())) {
+            changes.add(change(sent.get(i), found.result().get(result.getString("id"))));
+          }
+        }
+        if (!unknown.isEmpty()) {
+          LOGGER.warn("Events of a bulk were deleted while it was written, the activity rollups must be rebuilt");
+        }
+        rollups.updateAll(changes, this::rollupsUpdated);
+        resultHandler.handle(Future.succeededFuture(new JsonArray(Arrays.asList((Object[]) results))));
+      });
+    });
+    return this;
+  }
+
+  /**
+   * Validate the bulk operations and create the matching Mongo operations. An
+   * event is updated or deleted by one operation at most: the events are looked
+   * up once before the write, and the rollups are updated from these versions.
+   *
+   * @param operations  bulk operations
+   * @param maxDuration maximum duration of an event in milliseconds
+   * @param results     results of the operations
+   * @param indexes     index in the bulk of each created Mongo operation
+   * @return the Mongo operations of the valid operations
+   */
+  static List<BulkOperation> toBulkOperations(JsonArray operations, long maxDuration, JsonObject[] results,
+                                              List<Integer> indexes) {
+    List<BulkOperation> bulk = new ArrayList<>();
+    Set<String> targets = new HashSet<>();
+    for (int i = 0; i < operations.size(); i++) {
+      Object operation = operations.getValue(i);
+      BulkOperation bulkOperation = operation instanceof JsonObject
+        ? toBulkOperation(i, (JsonObject) operation, maxDuration, results)
+        : null;
+      if (bulkOperation == null) {
+        if (results[i] == null) {
+          results[i] = error(i, 400, "Operation must be a JSON object.");
+        }
+      } else if (bulkOperation.getType() != BulkOperation.BulkOperationType.INSERT
+        && !targets.add(results[i].getString("id"))) {
+        results[i] = error(i, 409, "Event is already changed by another operation.").put("id", results[i].getString("id"));
+      } else {
+        indexes.add(i);
+        bulk.add(bulkOperation);
+      }
+    }
+    return bulk;
+  }
+
+  /**
+   * Validate a bulk operation and create the matching Mongo operation. The
+   * expected result of the operation is set in {@code results}.
+   *
+   * @param index       index of the operation
+   * @param operation   bulk operation
+   * @param maxDuration maximum duration of an event in milliseconds
+   * @param results     results of the operations
+   * @return the Mongo operation, or {@code null} if the operation is invalid
+   */
+  static BulkOperation toBulkOperation(int index, JsonObject operation, long maxDuration, JsonObject[] results) {
+    Object op = operation.getValue("op");
+    Object id = operation.getValue("id");
+    Object event = operation.getValue("event");
+    if ("delete".equals(op)) {
+      if (!(id instanceof String)) {
+        results[index] = error(index, 400, "Event's id is missing.");
+        return null;
+      }
+      results[index] = result(index, 204, (String) id);
+      return BulkOperation.createDelete(new JsonObject().put("_id", id));
+    }
+    if (!"create".equals(op) && !"update".equals(op)) {
+      results[index] = error(index, 400, "Unknown operation: " + op);
+      return null;
+    }
+
+    String check = event instanceof JsonObject
+      ? new Event((JsonObject) event).checkEvent(maxDuration)
+      : "Event is missing.";
+    if (check != null) {
+      results[index] = error(index, 400, check);
+      return null;
+    }
+    if ("create".equals(op)) {
+      String newId = new ObjectId().toHexString();
+      results[index] = result(index, 201, newId);
+      return BulkOperation.createInsert(EventDocuments.toDocument((JsonObject) event).put("_id", newId));
+    }
+    if (!(id instanceof String)) {
+      results[index] = error(index, 400, "Event's id is missing.");
+      return null;
+    }
+    results[index] = result(index, 200, (String) id);
+    return BulkOperation.createUpdate(new JsonObject().put("_id", id),
+      new JsonObject().put("$set", EventDocuments.toDocument((JsonObject) event)));
+  }
+
+  /**
+   * Set the results of the operations rejected by an unordered bulk write.
+   *
+   * @param exception   failure of the bulk write
+   * @param sentIndexes index of each sent operation in the bulk
+   * @param results     results of the operations
+   */
+  static void writeErrors(MongoBulkWriteException exception, List<Integer> sentIndexes, JsonObject[] results) {
+    for (BulkWriteError writeError : exception.getWriteErrors()) {
+      int index = sentIndexes.get(writeError.getIndex());
+      results[index] = error(index, writeError.getCode() == DUPLICATE_KEY ? 409 : 500, writeError.getMessage())
+        .put("id", results[index].getString("id"));
+    }
+  }
+
+  /**
+   * Check the written updates or deletes against the number of events matched by
+   * the write: the events were looked up before, they may have been deleted
+   * meanwhile. If none of them matched, they fail as not found. If only some of
+   * them did, which ones is not known: they keep their result, but must not
+   * change the rollups.
+   *
+   * @param type        type of the checked operations, update or delete
+   * @param count       number of events matched by the operations of this type
+   * @param sent        sent operations
+   * @param sentIndexes index of each sent operation in the bulk
+   * @param results     results of the operations
+   * @return whether the successful operations of this type all matched their event
+   */
+  static boolean matched(BulkOperation.BulkOperationType type, long count, List<BulkOperation> sent,
+                         List<Integer> sentIndexes, JsonObject[] results) {
+    List<Integer> written = new ArrayList<>();
+    for (int i = 0; i < sent.size(); i++) {
+      if (sent.get(i).getType() == type && results[sentIndexes.get(i)].getInteger("status") < 300) {
+        written.add(sentIndexes.get(i));
+      }
+    }
+    if (count == written.size()) {
+      return true;
+    }
+    if (count > 0) {
+      return false;
+    }
+    for (int index : written) {
+      results[index] = error(index, 404, "Event not found.").put("id", results[index].getString("id"));
+    }
+    return true;
+  }
+
+  /**
+   * @param operation successful Mongo operation
+   * @param previous  previous version of the event, {@code null} for a created event
+   * @return the previous and new versions of the written event
+   */
+  private static JsonObject[] change(BulkOperation operation, JsonObject previous) {
+    switch (operation.getType()) {
+      case INSERT:
+        return new JsonObject[]{null, operation.getDocument()};
+      case UPDATE:
+        return new JsonObject[]{previous, previous.copy().mergeIn(operation.getDocument().getJsonObject("$set"))};
+      default:
+        return new JsonObject[]{previous, null};
+    }
+  }
+
+  /**
+   * Update the rollups with a written event. The event is already stored, so a
+   * failure is only logged, the rollups can be rebuilt from the events.
+   */
+  private void updateRollups(JsonObject previous, JsonObject current) {
+    rollups.update(previous, current, this::rollupsUpdated);
+  }
+
+  private void rollupsUpdated(AsyncResult<Void> res) {
+    if (res.failed()) {
+      LOGGER.error("Unable to update the activity rollups", res.cause());
+    }
+  }
+
+  private static JsonObject result(int index, int status, String id) {
+    return new JsonObject().put("index", index).put("status", status).put("id", id);
+  }
+
+  private static JsonObject error(int index, int status, String message) {
+    return new JsonObject().put("index", index).put("status", status).put("error", message);
+  }
 }
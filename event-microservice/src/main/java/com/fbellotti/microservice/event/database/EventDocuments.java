@@ -0,0 +1,67 @@
+package com.fbellotti.microservice.event.database;
+
+import com.fbellotti.microservice.event.model.Event;
+import com.fbellotti.microservice.event.model.EventConverter;
+import com.fbellotti.microservice.event.model.EventDates;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Date;
+
+/**
+ * Conversions between the events exchanged with the clients and the documents
+ * of the {@code event} collection, where the dates are stored as Mongo dates.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+final class EventDocuments {
+
+  private static final String[] DATES = {EventDates.START_DATE, EventDates.END_DATE};
+
+  private EventDocuments() {
+    // utility class
+  }
+
+  /**
+   * @param event event data object, already validated
+   * @return the document to store
+   */
+  static JsonObject toDocument(JsonObject event) {
+    JsonObject document = event.copy();
+    for (String field : DATES) {
+      Date date = EventDates.parse(document.getValue(field));
+      if (date != null) {
+        document.put(field, EventDates.toMongo(date));
+      }
+    }
+    return document;
+  }
+
+  /**
+   * @param event event, already validated
+   * @return the document to store, with the dates of the event as Mongo dates
+   */
+  static JsonObject toDocument(Event event) {
+    JsonObject document = new JsonObject();
+    EventConverter.toJson(event, document);
+    if (event.getStartDate() != null) {
+      document.put(EventDates.START_DATE, EventDates.toMongo(event.getStartDate()));
+    }
+    if (event.getEndDate() != null) {
+      document.put(EventDates.END_DATE, EventDates.toMongo(event.getEndDate()));
+    }
+    return document;
+  }
+
+  /**
+   * @param document stored document
+   * @return the event data object, with ISO-8601 dates
+   */
+  static JsonObject fromDocument(JsonObject document) {
+    for (String field : DATES) {
+      if (document.getValue(field) instanceof JsonObject) {
+        document.put(field, EventDates.format(EventDates.parse(document.getValue(field))));
+      }
+    }
+    return document;
+  }
+}
@@ -0,0 +1,129 @@
+package com.fbellotti.microservice.event.database;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.BulkOperation;
+import io.vertx.ext.mongo.BulkWriteOptions;
+import io.vertx.ext.mongo.MongoClient;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Coalesce the concurrent event creations into bulk inserts. The documents are
+ * collected for up to {@code max.delay} milliseconds or {@code max.documents}
+ * documents, then inserted at once. Their ids are generated before the insert,
+ * so each creation is completed with its own id, or with its own error when its
+ * document is rejected.
+ *
+ * The creations come from the event bus and from the REST verticle, so the
+ * batcher is thread safe.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+class EventInsertBatcher {
+
+  private static final int DEFAULT_MAX_DOCUMENTS = 100;
+  private static final long DEFAULT_MAX_DELAY = 10;
+
+  private final Vertx vertx;
+  private final MongoClient mongo;
+  private final String collection;
+  private final int maxDocuments;
+  private final long maxDelay;
+  private final Handler<List<JsonObject>> insertedHandler;
+  private List<Insert> pending = new ArrayList<>();
+  private long flushTimer = -1;
+
+  /**
+   * @param collection      collection of the documents
+   * @param config          batching configuration
+   * @param insertedHandler handler receiving the documents of each bulk insert that were inserted
+   */
+  EventInsertBatcher(Vertx vertx, MongoClient mongo, String collection, JsonObject config,
+                     Handler<List<JsonObject>> insertedHandler) {
+    this.vertx = vertx;
+    this.mongo = mongo;
+    this.collection = collection;
+    this.maxDocuments = config.getInteger("max.documents", DEFAULT_MAX_DOCUMENTS);
+    this.maxDelay = config.getLong("max.delay", DEFAULT_MAX_DELAY);
+    this.insertedHandler = insertedHandler;
+  }
+
+  /**
+   * Insert a document with the next bulk insert.
+   *
+   * @param document      document to insert, without {@code _id}
+   * @param resultHandler async result handler, with the id of the document
+   */
+  synchronized void insert(JsonObject document, Handler<AsyncResult<String>> resultHandler) {
+    pending.add(new Insert(document.put("_id", new ObjectId().toHexString()), resultHandler));
+    if (pending.size() >= maxDocuments) {
+      flush();
+    } else if (flushTimer == -1) {
+      flushTimer = vertx.setTimer(maxDelay, id -> {
+        synchronized (this) {
+          flushTimer = -1;
+          flush();
+        }
+      });
+    }
+  }
+
+  private void flush() {
+    if (flushTimer != -1) {
+      vertx.cancelTimer(flushTimer);
+      flushTimer = -1;
+    }
+    if (pending.isEmpty()) {
+      return;
+    }
+    List<Insert> inserts = pending;
+    pending = new ArrayList<>();
+
+    List<BulkOperation> operations = new ArrayList<>(inserts.size());
+    inserts.forEach(insert -> operations.add(BulkOperation.createInsert(insert.document)));
+    // unordered, so a rejected document does not prevent the following ones
+    mongo.bulkWriteWithOptions(collection, operations, new BulkWriteOptions(false), res -> {
+      if (res.failed() && !(res.cause() instanceof MongoBulkWriteException)) {
+        inserts.forEach(insert -> insert.resultHandler.handle(Future.failedFuture(res.cause())));
+        return;
+      }
+      if (res.failed()) {
+        for (BulkWriteError writeError : ((MongoBulkWriteException) res.cause()).getWriteErrors()) {
+          Insert insert = inserts.get(writeError.getIndex());
+          insert.resultHandler.handle(Future.failedFuture(writeError.getMessage()));
+          insert.resultHandler = null;
+        }
+      }
+      List<JsonObject> inserted = new ArrayList<>(inserts.size());
+      for (Insert insert : inserts) {
+        if (insert.resultHandler != null) {
+          inserted.add(insert.document);
+          insert.resultHandler.handle(Future.succeededFuture(insert.document.getString("_id")));
+        }
+      }
+      insertedHandler.handle(inserted);
+    });
+  }
+
+  /**
+   * A document waiting for the next bulk insert.
+   */
+  private static final class Insert {
+
+    private final JsonObject document;
+    private Handler<AsyncResult<String>> resultHandler;
+
+    private Insert(JsonObject document, Handler<AsyncResult<String>> resultHandler) {
+      this.document = document;
+      this.resultHandler = resultHandler;
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package com.fbellotti.microservice.event.database;
+
+import com.fbellotti.microservice.event.model.EventDates;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.FindOptions;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A query over the events, translated to a Mongo filter. Events are returned
+ * by start date, then by id, one page at a time: the cursor of the next page
+ * holds the start date and the id of the last event of the page, so a page
+ * is read from the index whatever its depth, instead of skipping the events
+ * of the previous pages.
+ *
+ * The supported criteria are {@code from} and {@code to} (events overlapping the
+ * interval), {@code projectCode}, {@code owner}, {@code limit} and the {@code after}
+ * cursor. The {@link #INDEXES} cover each criterion followed by the sort order.
+ * An event overlapping the interval ends after {@code from}, and as events do not
+ * last more than the maximum duration, it also starts after {@code from} minus
+ * this duration: the start date is bounded on both sides, so a page only reads
+ * the index entries of this range instead of all the events before {@code to}.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+final class EventQuery {
+
+  static final JsonObject[] INDEXES = {
+    new JsonObject().put(EventDates.START_DATE, 1).put("_id", 1),
+    new JsonObject().put("projectCode", 1).put(EventDates.START_DATE, 1).put("_id", 1),
+    new JsonObject().put("owner", 1).put(EventDates.START_DATE, 1).put("_id", 1)
+  };
+
+  private static final int DEFAULT_LIMIT = 50;
+  private static final int MAX_LIMIT = 500;
+
+  private final JsonObject filter;
+  private final int limit;
+
+  /**
+   * @param query       criteria of the query
+   * @param maxDuration maximum duration of an event in milliseconds
+   * @throws IllegalArgumentException if a criterion is invalid
+   */
+  EventQuery(JsonObject query, long maxDuration) {
+    JsonArray and = new JsonArray();
+    Date from = EventDates.parse(query.getValue("from"));
+    Date to = EventDates.parse(query.getValue("to"));
+    JsonObject startDate = new JsonObject();
+    if (from != null) {
+      startDate.put("$gte", EventDates.toMongo(new Date(from.getTime() - maxDuration)));
+    }
+    if (to != null) {
+      startDate.put("$lt", EventDates.toMongo(to));
+    }
+    if (!startDate.isEmpty()) {
+      and.add(new JsonObject().put(EventDates.START_DATE, startDate));
+    }
+    if (from != null) {
+      and.add(new JsonObject().put(EventDates.END_DATE, new JsonObject().put("$gte", EventDates.toMongo(from))));
+    }
+    if (query.getValue("projectCode") != null) {
+      and.add(new JsonObject().put("projectCode", query.getValue("projectCode")));
+    }
+    if (query.getValue("owner") != null) {
+      and.add(new JsonObject().put("owner", query.getValue("owner")));
+    }
+    if (query.getValue("after") != null) {
+      and.add(after(decodeCursor(query.getValue("after"))));
+    }
+    this.filter = and.isEmpty() ? new JsonObject() : new JsonObject().put("$and", and);
+
+    Object limitValue = query.getValue("limit");
+    if (limitValue != null && !(limitValue instanceof Number)) {
+      throw new IllegalArgumentException("Invalid limit: " + limitValue);
+    }
+    int requested = limitValue == null ? DEFAULT_LIMIT : ((Number) limitValue).intValue();
+    if (requested < 1) {
+      throw new IllegalArgumentException("Invalid limit: " + requested);
+    }
+    this.limit = Math.min(requested, MAX_LIMIT);
+  }
+
+  JsonObject getFilter() {
+    return filter;
+  }
+
+  /**
+   * @return the options reading one more event than the page size, to know whether there is a next page
+   */
+  FindOptions getOptions() {
+    return new FindOptions()
+      .setSort(INDEXES[0])
+      .setLimit(limit + 1);
+  }
+
+  /**
+   * Build a page of events from the documents read with {@link #getOptions()}.
+   *
+   * @param documents documents read
+   * @return the page, with the {@code events} and the {@code next} cursor if there are more events
+   */
+  JsonObject page(List<JsonObject> documents) {
+    JsonArray events = new JsonArray();
+    int size = Math.min(documents.size(), limit);
+    for (int i = 0; i < size; i++) {
+      events.add(EventDocuments.fromDocument(documents.get(i)));
+    }
+    JsonObject page = new JsonObject().put("events", events);
+    if (documents.size() > limit) {
+      JsonObject last = documents.get(limit - 1);
+      page.put("next", encodeCursor(last));
+    }
+    return page;
+  }
+
+  private static JsonObject after(JsonObject cursor) {
+    Object id = cursor.getValue("i");
+    Object startDate = cursor.getValue("s");
+    if (startDate == null) {
+      // events without start date come first
+      return new JsonObject().put("$or", new JsonArray()
+        .add(new JsonObject().put(EventDates.START_DATE, new JsonObject().put("$type", "date")))
+        .add(new JsonObject().put(EventDates.START_DATE, (Object) null).put("_id", new JsonObject().put("$gt", id))));
+    }
+    JsonObject date = EventDates.toMongo(EventDates.parse(startDate));
+    return new JsonObject().put("$or", new JsonArray()
+      .add(new JsonObject().put(EventDates.START_DATE, new JsonObject().put("$gt", date)))
+      .add(new JsonObject().put(EventDates.START_DATE, date).put("_id", new JsonObject().put("$gt", id))));
+  }
+
+  private static String encodeCursor(JsonObject document) {
+    Object startDate = document.getValue(EventDates.START_DATE);
+    JsonObject cursor = new JsonObject()
+      .put("s", startDate == null ? null : EventDates.parse(startDate).getTime())
+      .put("i", document.getValue("_id"));
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.encode().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static JsonObject decodeCursor(Object value) {
+    try {
+      JsonObject cursor = new JsonObject(new String(Base64.getUrlDecoder().decode(value.toString()), StandardCharsets.UTF_8));
+      if (cursor.getValue("i") == null) {
+        throw new IllegalArgumentException("Invalid cursor: " + value);
+      }
+      return cursor;
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException("Invalid cursor: " + value);
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package com.fbellotti.microservice.event.http;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fbellotti.microservice.event.model.Event;
+import com.fbellotti.microservice.event.model.EventDates;
+import io.netty.buffer.ByteBufInputStream;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Decode the event of a request body in a single pass: the body is read with a
+ * streaming parser straight into an {@link Event}, which is then validated.
+ * Unknown fields are skipped, and a field of the wrong type rejects the event
+ * as soon as it is read.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+final class EventDecoder {
+
+  private EventDecoder() {
+    // utility class
+  }
+
+  /**
+   * @param body        request body
+   * @param maxDuration maximum duration of an event in milliseconds
+   * @return the valid event
+   * @throws IllegalArgumentException if the body is not a valid event, with the reason
+   */
+  static Event decode(Buffer body, long maxDuration) {
+    if (body == null || body.length() == 0) {
+      throw new IllegalArgumentException("Event is missing.");
+    }
+    Event event = new Event();
+    try (JsonParser parser = Json.mapper.getFactory().createParser(new ByteBufInputStream(body.getByteBuf()))) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new IllegalArgumentException("Event must be a JSON object.");
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        parser.nextToken();
+        switch (field) {
+          case "id":
+            event.setId(text(parser, field));
+            break;
+          case "title":
+            event.setTitle(text(parser, field));
+            break;
+          case "description":
+            event.setDescription(text(parser, field));
+            break;
+          case "projectCode":
+            event.setProjectCode(text(parser, field));
+            break;
+          case "owner":
+            event.setOwner(text(parser, field));
+            break;
+          case EventDates.START_DATE:
+            event.setStartDate(date(parser));
+            break;
+          case EventDates.END_DATE:
+            event.setEndDate(date(parser));
+            break;
+          default:
+            parser.skipChildren();
+        }
+      }
+    } catch (JsonProcessingException e) {
+      throw new IllegalArgumentException("Event must be a JSON object.");
+    } catch (IOException e) {
+      throw new IllegalArgumentException(e.getMessage());
+    }
+
+    String check = event.checkEvent(maxDuration);
+    if (check != null) {
+      throw new IllegalArgumentException(check);
+    }
+    return event;
+  }
+
+  private static String text(JsonParser parser, String field) throws IOException {
+    switch (parser.getCurrentToken()) {
+      case VALUE_NULL:
+        return null;
+      case VALUE_STRING:
+        return parser.getText();
+      default:
+        throw new IllegalArgumentException("Event's " + field + " must be a string.");
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Date date(JsonParser parser) throws IOException {
+    switch (parser.getCurrentToken()) {
+      case VALUE_NULL:
+        return null;
+      case VALUE_STRING:
+        return EventDates.parse(parser.getText());
+      case VALUE_NUMBER_INT:
+        return EventDates.parse(parser.getLongValue());
+      case START_OBJECT:
+        // extended JSON date, {"$date": ...}
+        return EventDates.parse(new JsonObject(parser.readValueAs(Map.class)));
+      default:
+        return EventDates.parse(parser.getText());
+    }
+  }
+}
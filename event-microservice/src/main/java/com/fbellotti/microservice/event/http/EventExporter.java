@@ -0,0 +1,130 @@
+package com.fbellotti.microservice.event.http;
+
+import com.fbellotti.microservice.event.database.EventDatabaseService;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Export of the events matching a query, as NDJSON (one JSON event per line)
+ * or as CSV. The events are read one page at a time with the keyset cursor of
+ * the event queries and written to the response as soon as they are read; the
+ * next page is only read once the response has drained, so the memory used by
+ * an export is bounded by one page whatever the number of events.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+class EventExporter {
+
+  static final String NDJSON = "ndjson";
+  static final String CSV = "csv";
+
+  private static final String[] CSV_COLUMNS = {"_id", "title", "startDate", "endDate", "projectCode", "owner", "description"};
+
+  private final EventDatabaseService service;
+  private final int pageSize;
+
+  EventExporter(EventDatabaseService service, int pageSize) {
+    this.service = service;
+    this.pageSize = pageSize;
+  }
+
+  /**
+   * Export the events.
+   *
+   * @param response       response to write
+   * @param query          query criteria, without {@code limit} and {@code after}
+   * @param format         {@link #NDJSON} or {@link #CSV}
+   * @param failureHandler called if the first page can not be read, nothing is written then
+   */
+  void export(HttpServerResponse response, JsonObject query, String format, Handler<Throwable> failureHandler) {
+    query.put("limit", pageSize).remove("after");
+    page(response, query, format, failureHandler);
+  }
+
+  private void page(HttpServerResponse response, JsonObject query, String format, Handler<Throwable> failureHandler) {
+    service.queryEvents(query, ar -> {
+      if (response.closed()) {
+        return;
+      }
+      if (ar.failed()) {
+        if (response.headWritten()) {
+          // the export can not be completed, the client must not take it as complete
+          response.close();
+        } else {
+          failureHandler.handle(ar.cause());
+        }
+        return;
+      }
+
+      if (!response.headWritten()) {
+        response.setChunked(true)
+          .putHeader("content-type", CSV.equals(format) ? "text/csv; charset=utf-8" : "application/x-ndjson")
+          .putHeader("content-disposition", "attachment; filename=\"events." + format + "\"");
+        if (CSV.equals(format)) {
+          response.write(csvHeader());
+        }
+      }
+      JsonArray events = ar.result().getJsonArray("events");
+      Buffer buffer = Buffer.buffer(events.size() * 256);
+      for (Object event : events) {
+        if (CSV.equals(format)) {
+          appendCsv(buffer, (JsonObject) event);
+        } else {
+          buffer.appendString(((JsonObject) event).encode()).appendByte((byte) '\n');
+        }
+      }
+      response.write(buffer);
+
+      String next = ar.result().getString("next");
+      if (next == null) {
+        response.end();
+        return;
+      }
+      // each page reads its own copy of the criteria, the previous one may still be in use
+      JsonObject nextQuery = query.copy().put("after", next);
+      if (response.writeQueueFull()) {
+        response.drainHandler(v -> {
+          // only the first drain reads the next page, the following ones come while it is read
+          response.drainHandler(null);
+          page(response, nextQuery, format, failureHandler);
+        });
+      } else {
+        page(response, nextQuery, format, failureHandler);
+      }
+    });
+  }
+
+  private static Buffer csvHeader() {
+    Buffer buffer = Buffer.buffer();
+    for (int i = 0; i < CSV_COLUMNS.length; i++) {
+      buffer.appendString(i == 0 ? "id" : "," + CSV_COLUMNS[i]);
+    }
+    return buffer.appendString("\r\n");
+  }
+
+  private static void appendCsv(Buffer buffer, JsonObject event) {
+    for (int i = 0; i < CSV_COLUMNS.length; i++) {
+      if (i > 0) {
+        buffer.appendByte((byte) ',');
+      }
+      Object value = event.getValue(CSV_COLUMNS[i]);
+      if (value != null) {
+        buffer.appendString(escapeCsv(value.toString()));
+      }
+    }
+    buffer.appendString("\r\n");
+  }
+
+  private static String escapeCsv(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+        return '"' + value.replace("\"", "\"\"") + '"';
+      }
+    }
+    return value;
+  }
+}
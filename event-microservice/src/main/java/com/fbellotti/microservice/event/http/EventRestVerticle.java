@@ -1,14 +1,24 @@
 package com.fbellotti.microservice.event.http;
 
+import com.fbellotti.microservice.event.database.EventCache;
 import com.fbellotti.microservice.event.database.EventDatabaseService;
 import com.fbellotti.microservice.event.model.Event;
+import com.fbellotti.microservice.event.model.EventDates;
+import com.fbellotti.microservice.event.report.ReportService;
 import com.fbellotti.vertx.api.RestAPIVerticle;
+import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
-import io.vertx.core.json.Json;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.BodyHandler;
 
+import java.util.function.Function;
+
 /**
  * A verticle supplies REST endpoint for event service.
  *
@@ -18,26 +28,60 @@ public class EventRestVerticle extends RestAPIVerticle {
 
   private static final String SERVICE_NAME = "event-rest-service";
   private static final String EVENT_CREATE = "/events";
+  private static final String EVENT_QUERY = "/events";
   private static final String EVENT_RETRIEVE = "/events/:id";
   private static final String EVENT_UPDATE = "/events/:id";
   private static final String EVENT_DELETE = "/events/:id";
+  private static final String EVENT_BULK = "/events/_bulk";
+  private static final String EVENT_EXPORT = "/events/_export";
+  private static final String EVENT_CACHE = "/events/_cache";
+  private static final String REPORT_ACTIVITY = "/reports/activity";
+  private static final String REPORT_REBUILD = "/reports/activity/_rebuild";
+  private static final int DEFAULT_EXPORT_PAGE_SIZE = 500;
+  private static final int DEFAULT_BULK_MAX_OPERATIONS = 1000;
+  private static final String[] QUERY_PARAMS = {"from", "to", "projectCode", "owner", "after"};
+  private static final String[] REPORT_PARAMS = {"from", "to", "projectCode", "owner"};
 
   private final EventDatabaseService service;
+  private final ReportService reportService;
+  private final EventCache cache;
+  private String apiName;
+  private String cacheInvalidationAddress;
+  private int bulkMaxOperations;
+  private long maxDuration;
+  private EventExporter exporter;
 
-  public EventRestVerticle(EventDatabaseService service) {
+  public EventRestVerticle(EventDatabaseService service, ReportService reportService, EventCache cache) {
     this.service = service;
+    this.reportService = reportService;
+    this.cache = cache;
   }
 
   @Override
   public void start(Future<Void> future) throws Exception {
     super.start();
 
+    apiName = config().getString("api.name", "event");
+    cacheInvalidationAddress = config().getString("cache.invalidation.address", "gateway.cache.invalidate");
+    bulkMaxOperations = config().getInteger("event.bulk.max.operations", DEFAULT_BULK_MAX_OPERATIONS);
+    maxDuration = Event.maxDuration(config());
+    exporter = new EventExporter(service, config().getInteger("event.export.page.size", DEFAULT_EXPORT_PAGE_SIZE));
+
     Router router = Router.router(vertx);
     router.route().handler(BodyHandler.create());
     router.post(EVENT_CREATE).handler(this::create);
+    router.post(EVENT_BULK).handler(this::bulk);
+    router.get(EVENT_QUERY).handler(this::query);
+    router.get(EVENT_EXPORT).handler(this::export);
+    router.get(EVENT_CACHE).handler(this::cacheStats);
     router.get(EVENT_RETRIEVE).handler(this::retrieve);
     router.put(EVENT_UPDATE).handler(this::update);
     router.delete(EVENT_DELETE).handler(this::delete);
+    router.get(REPORT_ACTIVITY).handler(this::activityReport);
+    if (config().getBoolean("event.report.rebuild.enabled", false)) {
+      // the rebuild replaces the whole rollup collection, it is only exposed on demand
+      router.post(REPORT_REBUILD).handler(this::rebuildReports);
+    }
 
     String host = config().getString("event.http.address", "0.0.0.0");
     int port = config().getInteger("event.http.port", 8090);
@@ -49,35 +93,287 @@ public class EventRestVerticle extends RestAPIVerticle {
   }
 
   private void create(RoutingContext context) {
-    Event event = new Event(context.getBodyAsJson());
-    String check = event.checkEvent();
+    Event event = decode(context);
+    if (event == null) {
+      return;
+    }
+
+    String owner = owner(context);
+    if (owner != null) {
+      event.setOwner(owner);
+    }
+    service.createEvent(event, invalidating(null, jsonResultHandler(context)));
+  }
+
+  private void query(RoutingContext context) {
+    JsonObject query = queryParams(context);
+    if (query == null) {
+      return;
+    }
+
+    Handler<AsyncResult<JsonObject>> handler = jsonResultHandler(context);
+    service.queryEvents(query, ar -> {
+      if (ar.failed() && ar.cause() instanceof IllegalArgumentException) {
+        badRequest(context, ar.cause().getMessage());
+      } else {
+        handler.handle(ar);
+      }
+    });
+  }
+
+  private void export(RoutingContext context) {
+    String format = context.request().getParam("format");
+    if (format == null) {
+      format = EventExporter.NDJSON;
+    }
+    if (!EventExporter.NDJSON.equals(format) && !EventExporter.CSV.equals(format)) {
+      badRequest(context, "Export format must be ndjson or csv.");
+      return;
+    }
+    JsonObject query = queryParams(context);
+    if (query == null) {
+      return;
+    }
+
+    exporter.export(context.response(), query, format, cause -> {
+      if (cause instanceof IllegalArgumentException) {
+        badRequest(context, cause.getMessage());
+      } else {
+        internalError(context, cause);
+      }
+    });
+  }
 
-    if (check == null) {
-      service.createEvent(context.getBodyAsJson(), resultHandler(context, Json::encodePrettily));
-    } else {
-      badRequest(context, check);
+  /**
+   * Read the criteria of an event query from the request parameters.
+   *
+   * @param context Routing context instance
+   * @return the query, or {@code null} if a parameter is invalid and a bad request was sent
+   */
+  private JsonObject queryParams(RoutingContext context) {
+    MultiMap params = context.request().params();
+    JsonObject query = new JsonObject();
+    for (String param : QUERY_PARAMS) {
+      if (params.get(param) != null) {
+        query.put(param, params.get(param));
+      }
     }
+    try {
+      EventDates.parse(query.getValue("from"));
+      EventDates.parse(query.getValue("to"));
+      if (params.get("limit") != null) {
+        query.put("limit", Integer.parseInt(params.get("limit")));
+      }
+    } catch (IllegalArgumentException e) {
+      badRequest(context, e.getMessage());
+      return null;
+    }
+    return query;
   }
 
   private void retrieve(RoutingContext context) {
     String eventId = context.request().getParam("id");
-    service.retrieveEvent(eventId, resultHandlerNonEmpty(context));
+    Buffer cached = cache.peek(eventId);
+    if (cached != null) {
+      ResponseWriter.write(context, 200, cached);
+      return;
+    }
+    service.retrieveEvent(eventId, ar -> {
+      if (ar.failed()) {
+        internalError(context, ar.cause());
+      } else if (ar.result() == null) {
+        notFound(context);
+      } else {
+        ResponseWriter.write(context, 200, ar.result());
+      }
+    });
+  }
+
+  private void cacheStats(RoutingContext context) {
+    ResponseWriter.write(context, 200, cache.toJson());
   }
 
   private void update(RoutingContext context) {
     String eventId = context.request().getParam("id");
-    Event event = new Event(context.getBodyAsJson());
-    String check = event.checkEvent();
+    Event event = decode(context);
+    if (event == null) {
+      return;
+    }
+
+    // the owner of an event is the user who created it
+    event.setOwner(null);
+    service.updateEvent(eventId, event, invalidating(eventId, jsonResultHandler(context)));
+  }
 
-    if (check == null) {
-      service.updateEvent(eventId, context.getBodyAsJson(), resultHandler(context, Json::encodePrettily));
-    } else {
-      badRequest(context, check);
+  /**
+   * Decode and validate the event of the request body.
+   *
+   * @param context Routing context instance
+   * @return the event, or {@code null} if it is invalid and a bad request was sent
+   */
+  private Event decode(RoutingContext context) {
+    try {
+      return EventDecoder.decode(context.getBody(), maxDuration);
+    } catch (IllegalArgumentException e) {
+      badRequest(context, e.getMessage());
+      return null;
     }
   }
 
   private void delete(RoutingContext context) {
     String eventId = context.request().getParam("id");
-    service.deleteEvent(eventId, deleteResultHandler(context));
+    service.deleteEvent(eventId, invalidating(eventId, deleteResultHandler(context)));
+  }
+
+  private void activityReport(RoutingContext context) {
+    MultiMap params = context.request().params();
+    JsonObject query = new JsonObject();
+    for (String param : REPORT_PARAMS) {
+      if (params.get(param) != null) {
+        query.put(param, params.get(param));
+      }
+    }
+
+    Handler<AsyncResult<JsonArray>> handler = jsonResultHandler(context);
+    reportService.activityReport(query, ar -> {
+      if (ar.failed() && ar.cause() instanceof IllegalArgumentException) {
+        badRequest(context, ar.cause().getMessage());
+      } else {
+        handler.handle(ar);
+      }
+    });
+  }
+
+  private void rebuildReports(RoutingContext context) {
+    reportService.rebuildRollups(ar -> {
+      if (ar.succeeded()) {
+        invalidate(REPORT_ACTIVITY);
+      }
+      deleteResultHandler(context).handle(ar);
+    });
+  }
+
+  private void bulk(RoutingContext context) {
+    JsonObject body;
+    try {
+      body = context.getBodyAsJson();
+    } catch (Exception e) {
+      badRequest(context, "Bulk body must be a JSON object.");
+      return;
+    }
+    JsonArray operations = body == null ? null : body.getJsonArray("operations");
+    if (operations == null) {
+      badRequest(context, "Bulk body must contain an `operations` array.");
+      return;
+    }
+    if (operations.size() > bulkMaxOperations) {
+      badRequest(context, "Bulk must not contain more than " + bulkMaxOperations + " operations.");
+      return;
+    }
+
+    for (Object operation : operations) {
+      if (operation instanceof JsonObject && ((JsonObject) operation).getValue("event") instanceof JsonObject) {
+        JsonObject event = ((JsonObject) operation).getJsonObject("event");
+        if ("create".equals(((JsonObject) operation).getValue("op"))) {
+          owned(context, event);
+        } else {
+          event.remove("owner");
+        }
+      }
+    }
+
+    Handler<AsyncResult<JsonArray>> handler = jsonResultHandler(context,
+      results -> new JsonObject().put("results", results));
+    service.bulkEvents(operations, ar -> {
+      if (ar.succeeded()) {
+        invalidate(EVENT_QUERY);
+        invalidate(REPORT_ACTIVITY);
+        for (Object result : ar.result()) {
+          int status = ((JsonObject) result).getInteger("status");
+          if (status == 200 || status == 204) {
+            invalidate("/events/" + ((JsonObject) result).getString("id"));
+          }
+        }
+      }
+      handler.handle(ar);
+    });
+  }
+
+  private <T> Handler<AsyncResult<T>> jsonResultHandler(RoutingContext context) {
+    return jsonResultHandler(context, result -> result);
+  }
+
+  /**
+   * Create a result handler writing the result as JSON with the {@link ResponseWriter}.
+   *
+   * @param context Routing context instance
+   * @param body    function computing the response body from the result
+   * @return the result handler
+   */
+  private <T> Handler<AsyncResult<T>> jsonResultHandler(RoutingContext context, Function<T, Object> body) {
+    return ar -> {
+      if (ar.succeeded()) {
+        ResponseWriter.write(context, 200, body.apply(ar.result()));
+      } else {
+        internalError(context, ar.cause());
+      }
+    };
+  }
+
+  /**
+   * Set the owner of a created event: the user sending the request, as
+   * forwarded by the API gateway.
+   *
+   * @param context Routing context instance
+   * @param event   created event
+   * @return the event
+   */
+  private JsonObject owned(RoutingContext context, JsonObject event) {
+    String owner = owner(context);
+    if (owner != null) {
+      event.put("owner", owner);
+    }
+    return event;
+  }
+
+  /**
+   * @param context Routing context instance
+   * @return the user sending the request, as forwarded by the API gateway, or {@code null}
+   */
+  private String owner(RoutingContext context) {
+    String principal = context.request().getHeader("user-principal");
+    return principal == null ? null : new JsonObject(principal).getString("username");
+  }
+
+  /**
+   * Wrap a result handler to announce, once the operation succeeded, that the
+   * cached copies of the event, of the event queries and of the reports are stale.
+   *
+   * @param eventId id of the modified event, or {@code null} for a created event
+   * @param handler result handler
+   * @return the wrapping result handler
+   */
+  private <T> Handler<AsyncResult<T>> invalidating(String eventId, Handler<AsyncResult<T>> handler) {
+    return ar -> {
+      if (ar.succeeded()) {
+        invalidate(EVENT_QUERY);
+        invalidate(REPORT_ACTIVITY);
+        if (eventId != null) {
+          invalidate("/events/" + eventId);
+        }
+      }
+      handler.handle(ar);
+    };
+  }
+
+  /**
+   * Announce that the cached responses of a path are stale.
+   *
+   * @param path path relative to the API
+   */
+  private void invalidate(String path) {
+    vertx.eventBus().publish(cacheInvalidationAddress, new JsonObject()
+      .put("api.name", apiName)
+      .put("path", path));
   }
 }
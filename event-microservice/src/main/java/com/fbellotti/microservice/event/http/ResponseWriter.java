@@ -0,0 +1,77 @@
+package com.fbellotti.microservice.event.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+import java.io.IOException;
+
+/**
+ * Write the JSON responses of the REST API. A body is encoded compact, straight
+ * into a heap buffer without an intermediate string; it is pretty-printed only
+ * when the request has the {@code pretty} query parameter. The
+ * {@code content-length} of the response is always set.
+ *
+ * The {@code user-service} module has a copy of this class: the modules share no
+ * library, {@code cra-common} is not built, and each service builds on its own.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+final class ResponseWriter {
+
+  private static final String PRETTY = "pretty";
+  private static final String JSON = "application/json";
+
+  private ResponseWriter() {
+    // utility class
+  }
+
+  /**
+   * @param context Routing context instance
+   * @param status  status code of the response
+   * @param body    body of the response, encoded with the Vert.x Jackson mapper;
+   *                a {@link Buffer} is a body already encoded
+   */
+  static void write(RoutingContext context, int status, Object body) {
+    HttpServerResponse response = context.response().setStatusCode(status);
+    if (body == null) {
+      response.end();
+      return;
+    }
+    boolean pretty = isPretty(context);
+    if (body instanceof Buffer && !pretty) {
+      end(response, (Buffer) body);
+      return;
+    }
+    if (body instanceof Buffer) {
+      body = new JsonObject((Buffer) body);
+    }
+
+    // unpooled: the Vert.x buffer wrapping it is never released, the garbage collector frees it
+    ByteBuf buf = Unpooled.buffer();
+    try {
+      (pretty ? Json.prettyMapper : Json.mapper).writeValue(new ByteBufOutputStream(buf), body);
+    } catch (IOException | RuntimeException e) {
+      throw new IllegalStateException("Failed to encode as JSON: " + e.getMessage(), e);
+    }
+    end(response, Buffer.buffer(buf));
+  }
+
+  private static void end(HttpServerResponse response, Buffer body) {
+    response
+      .putHeader(HttpHeaders.CONTENT_TYPE, JSON)
+      .putHeader(HttpHeaders.CONTENT_LENGTH, String.valueOf(body.length()))
+      .end(body);
+  }
+
+  private static boolean isPretty(RoutingContext context) {
+    String pretty = context.request().getParam(PRETTY);
+    return pretty != null && !"false".equals(pretty);
+  }
+}
@@ -4,6 +4,7 @@ import io.vertx.codegen.annotations.DataObject;
 import io.vertx.core.json.JsonObject;
 
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Event data object.
@@ -13,12 +14,16 @@ import java.util.Date;
 @DataObject(generateConverter = true)
 public class Event {
 
+  private static final long DEFAULT_MAX_DURATION_DAYS = 366;
+
   private String id;
   private String title;
   private Date startDate;
   private Date endDate;
   private String description;
   private String projectCode;
+  private String owner;
+  private String dateError;
 
   public Event() {
     // empty
@@ -26,18 +31,52 @@ public class Event {
 
   public Event(JsonObject json) {
     EventConverter.fromJson(json, this);
+    // dates are not handled by the generated converter
+    try {
+      startDate = EventDates.parse(json.getValue(EventDates.START_DATE));
+      endDate = EventDates.parse(json.getValue(EventDates.END_DATE));
+    } catch (IllegalArgumentException e) {
+      dateError = e.getMessage();
+    }
   }
 
   public JsonObject toJson() {
     JsonObject json = new JsonObject();
     EventConverter.toJson(this, json);
+    if (startDate != null) {
+      json.put(EventDates.START_DATE, EventDates.format(startDate));
+    }
+    if (endDate != null) {
+      json.put(EventDates.END_DATE, EventDates.format(endDate));
+    }
     return json;
   }
 
-  public String checkEvent() {
+  /**
+   * @param config configuration of the service
+   * @return the maximum duration of an event in milliseconds, configured in days by {@code event.max.duration.days}
+   */
+  public static long maxDuration(JsonObject config) {
+    return TimeUnit.DAYS.toMillis(config.getLong("event.max.duration.days", DEFAULT_MAX_DURATION_DAYS));
+  }
+
+  /**
+   * @param maxDuration maximum duration of an event in milliseconds, the interval queries rely on it
+   * @return the reason why the event is invalid, {@code null} if it is valid
+   */
+  public String checkEvent(long maxDuration) {
     if (title == null || title.isEmpty()) {
       return "Event's title is empty.";
     }
+    if (dateError != null) {
+      return dateError;
+    }
+    if (startDate != null && endDate != null && endDate.before(startDate)) {
+      return "Event's end date is before its start date.";
+    }
+    if (startDate != null && endDate != null && endDate.getTime() - startDate.getTime() > maxDuration) {
+      return "Event must not last more than " + TimeUnit.MILLISECONDS.toDays(maxDuration) + " days.";
+    }
     return null;
   }
 
@@ -89,6 +128,14 @@ public class Event {
     this.projectCode = projectCode;
   }
 
+  public String getOwner() {
+    return owner;
+  }
+
+  public void setOwner(String owner) {
+    this.owner = owner;
+  }
+
   @Override
   public String toString() {
     return this.toJson().encodePrettily();
@@ -0,0 +1,75 @@
+package com.fbellotti.microservice.event.model;
+
+import io.vertx.core.json.JsonObject;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+
+/**
+ * Conversions of the event dates. Dates are exchanged as ISO-8601 strings
+ * (an instant such as {@code 2017-06-01T09:00:00Z}, or a day such as
+ * {@code 2017-06-01} meaning its first instant in UTC) and stored as Mongo
+ * dates, so they can be range-indexed.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public final class EventDates {
+
+  public static final String START_DATE = "startDate";
+  public static final String END_DATE = "endDate";
+
+  private static final String MONGO_DATE = "$date";
+
+  private EventDates() {
+    // utility class
+  }
+
+  /**
+   * Parse a date.
+   *
+   * @param value ISO-8601 string, epoch milliseconds or Mongo date
+   * @return the date, or {@code null} if {@code value} is {@code null}
+   * @throws IllegalArgumentException if the value is not a date
+   */
+  public static Date parse(Object value) {
+    if (value == null) {
+      return null;
+    }
+    if (value instanceof Number) {
+      return new Date(((Number) value).longValue());
+    }
+    if (value instanceof JsonObject && ((JsonObject) value).containsKey(MONGO_DATE)) {
+      return parse(((JsonObject) value).getValue(MONGO_DATE));
+    }
+    if (value instanceof String) {
+      String text = (String) value;
+      try {
+        return text.length() == 10
+          ? Date.from(LocalDate.parse(text).atStartOfDay(ZoneOffset.UTC).toInstant())
+          : Date.from(Instant.parse(text));
+      } catch (DateTimeParseException e) {
+        throw new IllegalArgumentException("Invalid date: " + text);
+      }
+    }
+    throw new IllegalArgumentException("Invalid date: " + value);
+  }
+
+  /**
+   * @param date date
+   * @return the ISO-8601 string of the date
+   */
+  public static String format(Date date) {
+    return date.toInstant().toString();
+  }
+
+  /**
+   * @param date date
+   * @return the Mongo extended JSON of the date
+   */
+  public static JsonObject toMongo(Date date) {
+    return new JsonObject().put(MONGO_DATE, format(date));
+  }
+}
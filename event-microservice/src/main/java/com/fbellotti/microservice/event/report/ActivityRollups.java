@@ -0,0 +1,225 @@
+package com.fbellotti.microservice.event.report;
+
+import com.fbellotti.microservice.event.model.EventDates;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.BulkOperation;
+import io.vertx.ext.mongo.MongoClient;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The activity rollups: the minutes worked per owner, per project and per month,
+ * kept in the {@code event_rollup} collection. An event counts, for each UTC day
+ * it overlaps, the time it covers on that day, up to a working day of
+ * {@code report.day.hours} hours; its end date is exclusive.
+ *
+ * The rollups are updated incrementally with the difference between the previous
+ * and the new version of every written event, and can be rebuilt from all the
+ * events with an aggregation pipeline computing the same rollups.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class ActivityRollups {
+
+  public static final String COLLECTION = "event_rollup";
+
+  static final JsonObject[] INDEXES = {
+    new JsonObject().put("month", 1).put("owner", 1).put("projectCode", 1),
+    new JsonObject().put("owner", 1).put("month", 1),
+    new JsonObject().put("projectCode", 1).put("month", 1)
+  };
+
+  private static final String EVENTS = "event";
+  private static final long DAY = TimeUnit.DAYS.toMillis(1);
+  private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+  private static final int DEFAULT_DAY_HOURS = 8;
+  private static final DateTimeFormatter MONTH = DateTimeFormatter.ofPattern("yyyy-MM").withZone(ZoneOffset.UTC);
+
+  private final MongoClient mongo;
+  private final long dayMinutes;
+
+  public ActivityRollups(MongoClient mongo, JsonObject config) {
+    this.mongo = mongo;
+    this.dayMinutes = config.getInteger("report.day.hours", DEFAULT_DAY_HOURS) * 60L;
+  }
+
+  /**
+   * @return the number of minutes of a working day
+   */
+  public long getDayMinutes() {
+    return dayMinutes;
+  }
+
+  /**
+   * Update the rollups with a written event.
+   *
+   * @param previous      previous version of the event document, or {@code null} if it was created
+   * @param current       new version of the event document, or {@code null} if it was deleted
+   * @param resultHandler async result handler
+   */
+  public void update(JsonObject previous, JsonObject current, Handler<AsyncResult<Void>> resultHandler) {
+    Map<String, JsonObject> deltas = new HashMap<>();
+    contribute(previous, -1, deltas);
+    contribute(current, 1, deltas);
+    apply(deltas, resultHandler);
+  }
+
+  /**
+   * Update the rollups with several written events.
+   *
+   * @param changes       pairs of previous and new versions, as in {@link #update(JsonObject, JsonObject, Handler)}
+   * @param resultHandler async result handler
+   */
+  public void updateAll(List<JsonObject[]> changes, Handler<AsyncResult<Void>> resultHandler) {
+    Map<String, JsonObject> deltas = new HashMap<>();
+    for (JsonObject[] change : changes) {
+      contribute(change[0], -1, deltas);
+      contribute(change[1], 1, deltas);
+    }
+    apply(deltas, resultHandler);
+  }
+
+  /**
+   * Rebuild all the rollups from the events, with an aggregation pipeline
+   * replacing the rollup collection.
+   *
+   * The rebuild is not atomic with the incremental updates: an event written
+   * while the pipeline runs may be missed by the pipeline, and its {@code $inc}
+   * applied to the collection that {@code $out} then replaces is lost. The
+   * rebuild is meant to be run while the events are not written.
+   *
+   * @param resultHandler async result handler
+   */
+  public void rebuild(Handler<AsyncResult<Void>> resultHandler) {
+    JsonObject command = new JsonObject()
+      .put("aggregate", EVENTS)
+      .put("pipeline", rebuildPipeline())
+      .put("allowDiskUse", true)
+      .put("cursor", new JsonObject());
+    mongo.runCommand("aggregate", command, res -> {
+      if (res.succeeded()) {
+        resultHandler.handle(Future.succeededFuture());
+      } else {
+        resultHandler.handle(Future.failedFuture(res.cause()));
+      }
+    });
+  }
+
+  /**
+   * @return the aggregation pipeline computing the rollups from the events, as {@link #contribute} does
+   */
+  JsonArray rebuildPipeline() {
+    JsonObject dayStart = new JsonObject().put("$subtract", new JsonArray().add("$startDate")
+      .add(new JsonObject().put("$mod", new JsonArray()
+        .add(new JsonObject().put("$subtract", new JsonArray().add("$startDate").add(EventDates.toMongo(new Date(0)))))
+        .add(DAY))));
+    JsonObject dayCount = new JsonObject().put("$ceil", new JsonObject().put("$divide", new JsonArray()
+      .add(new JsonObject().put("$subtract", new JsonArray().add("$endDate").add("$dayStart")))
+      .add(DAY)));
+    JsonObject day = new JsonObject().put("$add", new JsonArray().add("$dayStart")
+      .add(new JsonObject().put("$multiply", new JsonArray().add("$day").add(DAY))));
+    JsonObject overlap = new JsonObject().put("$subtract", new JsonArray()
+      .add(new JsonObject().put("$min", new JsonArray().add("$endDate")
+        .add(new JsonObject().put("$add", new JsonArray().add("$dayStart")
+          .add(new JsonObject().put("$multiply", new JsonArray()
+            .add(new JsonObject().put("$add", new JsonArray().add("$day").add(1))).add(DAY)))))))
+      .add(new JsonObject().put("$max", new JsonArray().add("$startDate").add(day))));
+
+    JsonArray pipeline = new JsonArray()
+      .add(new JsonObject().put("$match", new JsonObject()
+        .put("startDate", new JsonObject().put("$type", "date"))
+        .put("endDate", new JsonObject().put("$type", "date"))))
+      .add(new JsonObject().put("$project", new JsonObject()
+        .put("owner", 1).put("projectCode", 1).put("startDate", 1).put("endDate", 1)
+        .put("dayStart", dayStart)))
+      .add(new JsonObject().put("$project", new JsonObject()
+        .put("owner", 1).put("projectCode", 1).put("startDate", 1).put("endDate", 1).put("dayStart", 1)
+        .put("day", new JsonObject().put("$range", new JsonArray().add(0).add(dayCount)))))
+      .add(new JsonObject().put("$unwind", "$day"))
+      .add(new JsonObject().put("$project", new JsonObject()
+        .put("owner", 1).put("projectCode", 1)
+        .put("month", new JsonObject().put("$dateToString", new JsonObject().put("format", "%Y-%m").put("date", day)))
+        .put("minutes", new JsonObject().put("$min", new JsonArray().add(dayMinutes)
+          .add(new JsonObject().put("$trunc", new JsonObject().put("$divide", new JsonArray().add(overlap).add(MINUTE))))))))
+      .add(new JsonObject().put("$match", new JsonObject().put("minutes", new JsonObject().put("$gt", 0))))
+      .add(new JsonObject().put("$group", new JsonObject()
+        .put("_id", new JsonObject().put("owner", "$owner").put("projectCode", "$projectCode").put("month", "$month"))
+        .put("minutes", new JsonObject().put("$sum", "$minutes"))))
+      .add(new JsonObject().put("$project", new JsonObject()
+        .put("_id", new JsonObject().put("$concat", new JsonArray()
+          .add(ifNull("$_id.owner")).add("|").add(ifNull("$_id.projectCode")).add("|").add("$_id.month")))
+        .put("owner", "$_id.owner").put("projectCode", "$_id.projectCode").put("month", "$_id.month")
+        .put("minutes", 1)))
+      .add(new JsonObject().put("$out", COLLECTION));
+    return pipeline;
+  }
+
+  /**
+   * Add the minutes of an event, per month, to the deltas of the rollups.
+   */
+  void contribute(JsonObject event, int sign, Map<String, JsonObject> deltas) {
+    if (event == null) {
+      return;
+    }
+    Date startDate = EventDates.parse(event.getValue(EventDates.START_DATE));
+    Date endDate = EventDates.parse(event.getValue(EventDates.END_DATE));
+    if (startDate == null || endDate == null) {
+      return;
+    }
+    long start = startDate.getTime();
+    long end = endDate.getTime();
+    String owner = event.getString("owner");
+    String projectCode = event.getString("projectCode");
+    for (long day = start - Math.floorMod(start, DAY); day < end; day += DAY) {
+      long minutes = Math.min(dayMinutes, (Math.min(end, day + DAY) - Math.max(start, day)) / MINUTE);
+      if (minutes <= 0) {
+        continue;
+      }
+      String month = MONTH.format(Instant.ofEpochMilli(day));
+      String key = (owner == null ? "" : owner) + "|" + (projectCode == null ? "" : projectCode) + "|" + month;
+      JsonObject delta = deltas.computeIfAbsent(key, k -> new JsonObject()
+        .put("owner", owner).put("projectCode", projectCode).put("month", month).put("minutes", 0L));
+      delta.put("minutes", delta.getLong("minutes") + sign * minutes);
+    }
+  }
+
+  private void apply(Map<String, JsonObject> deltas, Handler<AsyncResult<Void>> resultHandler) {
+    List<BulkOperation> operations = new ArrayList<>();
+    deltas.forEach((key, delta) -> {
+      long minutes = delta.getLong("minutes");
+      if (minutes != 0) {
+        delta.remove("minutes");
+        operations.add(BulkOperation.createUpdate(new JsonObject().put("_id", key), new JsonObject()
+          .put("$inc", new JsonObject().put("minutes", minutes))
+          .put("$setOnInsert", delta), true, false));
+      }
+    });
+    if (operations.isEmpty()) {
+      resultHandler.handle(Future.succeededFuture());
+      return;
+    }
+    mongo.bulkWrite(COLLECTION, operations, res -> {
+      if (res.succeeded()) {
+        resultHandler.handle(Future.succeededFuture());
+      } else {
+        resultHandler.handle(Future.failedFuture(res.cause()));
+      }
+    });
+  }
+
+  private static JsonObject ifNull(String field) {
+    return new JsonObject().put("$ifNull", new JsonArray().add(field).add(""));
+  }
+}
@@ -0,0 +1,54 @@
+package com.fbellotti.microservice.event.report;
+
+import io.vertx.codegen.annotations.Fluent;
+import io.vertx.codegen.annotations.ProxyGen;
+import io.vertx.codegen.annotations.VertxGen;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * A service interface computing the monthly activity reports (CRA) from the
+ * activity rollups, which are kept up to date on every event write.
+ * This service is an event bus service (aka. service proxy).
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+@VertxGen
+@ProxyGen
+public interface ReportService {
+
+  /**
+   * The name of the event bus service.
+   */
+  String SERVICE_NAME = "event-report-service";
+
+  /**
+   * The address on which the service is published.
+   */
+  String SERVICE_ADDRESS = "service.event.report";
+
+  /**
+   * Retrieve the days worked per owner, per project and per month. The criteria are
+   * {@code from} and {@code to} (months as {@code yyyy-MM}, both included),
+   * {@code owner} and {@code projectCode}.
+   *
+   * @param query         report criteria
+   * @param resultHandler async result handler, with one object per owner, project and month
+   *                      holding its {@code days}
+   */
+  @Fluent
+  ReportService activityReport(JsonObject query, Handler<AsyncResult<JsonArray>> resultHandler);
+
+  /**
+   * Rebuild the activity rollups from all the events. The events written
+   * during the rebuild may be missing from the rollups, so it is meant to be
+   * run while the events are not written.
+   *
+   * @param resultHandler async result handler
+   */
+  @Fluent
+  ReportService rebuildRollups(Handler<AsyncResult<Void>> resultHandler);
+
+}
@@ -0,0 +1,95 @@
+package com.fbellotti.microservice.event.report;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.FindOptions;
+import io.vertx.ext.mongo.MongoClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Activity reports read from the {@link ActivityRollups}: a report reads one
+ * rollup per owner, project and month, whatever the number of events.
+ *
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class ReportServiceImpl implements ReportService {
+
+  private static final Pattern MONTH = Pattern.compile("\\d{4}-\\d{2}");
+
+  private final MongoClient mongo;
+  private final ActivityRollups rollups;
+
+  public ReportServiceImpl(Vertx vertx, JsonObject config) {
+    this.mongo = MongoClient.createNonShared(vertx, config);
+    this.rollups = new ActivityRollups(mongo, config);
+  }
+
+  /**
+   * Create the indexes of the report queries, if they do not exist yet.
+   *
+   * @return Async result
+   */
+  public Future<Void> createIndexes() {
+    List<Future> futures = new ArrayList<>();
+    for (JsonObject index : ActivityRollups.INDEXES) {
+      Future<Void> future = Future.future();
+      mongo.createIndex(ActivityRollups.COLLECTION, index, future.completer());
+      futures.add(future);
+    }
+    return CompositeFuture.all(futures).map(r -> null);
+  }
+
+  @Override
+  public ReportService activityReport(JsonObject query, Handler<AsyncResult<JsonArray>> resultHandler) {
+    JsonObject filter = new JsonObject().put("minutes", new JsonObject().put("$gt", 0));
+    JsonObject month = new JsonObject();
+    for (String bound : new String[]{"from", "to"}) {
+      String value = query.getString(bound);
+      if (value != null) {
+        if (!MONTH.matcher(value).matches()) {
+          resultHandler.handle(Future.failedFuture(new IllegalArgumentException("Invalid month: " + value)));
+          return this;
+        }
+        month.put("from".equals(bound) ? "$gte" : "$lte", value);
+      }
+    }
+    if (!month.isEmpty()) {
+      filter.put("month", month);
+    }
+    if (query.getString("owner") != null) {
+      filter.put("owner", query.getString("owner"));
+    }
+    if (query.getString("projectCode") != null) {
+      filter.put("projectCode", query.getString("projectCode"));
+    }
+
+    FindOptions options = new FindOptions()
+      .setFields(new JsonObject().put("_id", 0))
+      .setSort(new JsonObject().put("month", 1).put("owner", 1).put("projectCode", 1));
+    double dayMinutes = rollups.getDayMinutes();
+    mongo.findWithOptions(ActivityRollups.COLLECTION, filter, options, res -> {
+      if (res.succeeded()) {
+        JsonArray report = new JsonArray();
+        res.result().forEach(rollup -> report.add(rollup.put("days", rollup.getLong("minutes") / dayMinutes)));
+        resultHandler.handle(Future.succeededFuture(report));
+      } else {
+        resultHandler.handle(Future.failedFuture(res.cause()));
+      }
+    });
+    return this;
+  }
+
+  @Override
+  public ReportService rebuildRollups(Handler<AsyncResult<Void>> resultHandler) {
+    rollups.rebuild(resultHandler);
+    return this;
+  }
+}
@@ -0,0 +1,110 @@
+package com.fbellotti.microservice.event.codec;
+
+import com.fbellotti.microservice.event.database.EventDatabaseService;
+import com.fbellotti.microservice.event.model.Event;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.serviceproxy.ProxyHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+
+/**
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+@RunWith(VertxUnitRunner.class)
+public class BinaryJsonMessageCodecTest {
+
+  private final BinaryJsonMessageCodec codec = new BinaryJsonMessageCodec();
+
+  private Vertx vertx;
+
+  @Before
+  public void prepare() {
+    vertx = Vertx.vertx();
+  }
+
+  @Test
+  public void round_trips_a_request(TestContext context) {
+    JsonObject request = request();
+    Buffer buffer = Buffer.buffer().appendString("header");
+    codec.encodeToWire(buffer, request);
+    buffer.appendString("trailer");
+
+    context.assertEquals(request, codec.decodeFromWire(6, buffer));
+    context.assertTrue(buffer.length() < request.encode().length() + 13, "the binary form is larger than JSON");
+  }
+
+  @Test
+  public void rejects_an_invalid_length(TestContext context) {
+    Buffer buffer = Buffer.buffer();
+    codec.encodeToWire(buffer, request());
+    buffer.setInt(0, buffer.getInt(0) - 1);
+
+    try {
+      codec.decodeFromWire(0, buffer);
+      context.fail("Accepted an invalid length");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void the_proxies_send_their_requests_with_the_codec(TestContext context) {
+    Event event = new Event(request().getJsonObject("event"));
+    ProxyHelper.registerService(EventDatabaseService.class, vertx, service(), "test.event.storage");
+
+    EventDatabaseService.createProxy(vertx, "test.event.storage")
+      .createEvent(event, context.asyncAssertSuccess(created -> context.assertEquals(event.toJson(), created)));
+  }
+
+  /**
+   * A service creating the events as they are received.
+   */
+  private EventDatabaseService service() {
+    return (EventDatabaseService) Proxy.newProxyInstance(getClass().getClassLoader(),
+      new Class<?>[]{EventDatabaseService.class}, (proxy, method, args) -> {
+        if (!"createEvent".equals(method.getName())) {
+          throw new UnsupportedOperationException(method.getName());
+        }
+        @SuppressWarnings("unchecked")
+        Handler<AsyncResult<JsonObject>> handler = (Handler<AsyncResult<JsonObject>>) args[1];
+        handler.handle(Future.succeededFuture(((Event) args[0]).toJson()));
+        return proxy;
+      });
+  }
+
+  private static JsonObject request() {
+    return new JsonObject()
+      .put("event", new JsonObject()
+        .put("title", "Réunion de sprint")
+        .put("startDate", "2017-06-01T09:00:00Z")
+        .put("description", new String(new char[300]).replace('\0', 'x'))
+        .put("projectCode", (String) null))
+      .put("operations", new JsonArray()
+        .add(new JsonObject().put("op", "delete").put("id", "e1"))
+        .add(true)
+        .add(42)
+        .add(Long.MAX_VALUE)
+        .add(1.5d)
+        .add(new JsonArray()))
+      .put("binary", new byte[]{1, 2, 3})
+      .put("instant", Instant.parse("2017-06-01T09:00:00.123Z"));
+  }
+
+  @After
+  public void finish(TestContext context) {
+    vertx.close(context.asyncAssertSuccess());
+  }
+}
@@ -0,0 +1,177 @@
+package com.fbellotti.microservice.event.database;
+
+import com.fbellotti.microservice.event.model.EventDates;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.BulkOperation;
+import org.bson.BsonDocument;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class EventDatabaseServiceImplTest {
+
+  private static final long MAX_DURATION = TimeUnit.DAYS.toMillis(31);
+
+  private final JsonObject[] results = new JsonObject[4];
+
+  @Test
+  public void creates_an_event_with_a_new_id() {
+    BulkOperation operation = EventDatabaseServiceImpl.toBulkOperation(1, new JsonObject()
+      .put("op", "create")
+      .put("event", new JsonObject().put("title", "Sprint").put(EventDates.START_DATE, "2017-06-01")), MAX_DURATION,
+      results);
+
+    assertEquals(BulkOperation.BulkOperationType.INSERT, operation.getType());
+    assertEquals(1, (int) results[1].getInteger("index"));
+    assertEquals(201, (int) results[1].getInteger("status"));
+    assertEquals(results[1].getString("id"), operation.getDocument().getString("_id"));
+    assertEquals(EventDates.toMongo(EventDates.parse("2017-06-01")), operation.getDocument().getJsonObject(EventDates.START_DATE));
+  }
+
+  @Test
+  public void updates_the_fields_of_an_event() {
+    BulkOperation operation = EventDatabaseServiceImpl.toBulkOperation(0, new JsonObject()
+      .put("op", "update")
+      .put("id", "e1")
+      .put("event", new JsonObject().put("title", "Sprint")), MAX_DURATION, results);
+
+    assertEquals(BulkOperation.BulkOperationType.UPDATE, operation.getType());
+    assertEquals(new JsonObject().put("_id", "e1"), operation.getFilter());
+    assertEquals(new JsonObject().put("$set", new JsonObject().put("title", "Sprint")), operation.getDocument());
+    assertEquals(new JsonObject().put("index", 0).put("status", 200).put("id", "e1"), results[0]);
+  }
+
+  @Test
+  public void deletes_an_event() {
+    BulkOperation operation = EventDatabaseServiceImpl.toBulkOperation(0, new JsonObject()
+      .put("op", "delete")
+      .put("id", "e1"), MAX_DURATION, results);
+
+    assertEquals(BulkOperation.BulkOperationType.DELETE, operation.getType());
+    assertEquals(new JsonObject().put("index", 0).put("status", 204).put("id", "e1"), results[0]);
+  }
+
+  @Test
+  public void rejects_the_invalid_operations() {
+    assertRejected(new JsonObject().put("op", "upsert").put("id", "e1"), "Unknown operation: upsert");
+    assertRejected(new JsonObject().put("op", "delete"), "Event's id is missing.");
+    assertRejected(new JsonObject().put("op", "update").put("event", new JsonObject().put("title", "Sprint")),
+      "Event's id is missing.");
+    assertRejected(new JsonObject().put("op", "create"), "Event is missing.");
+    assertRejected(new JsonObject().put("op", "create").put("event", new JsonObject()), "Event's title is empty.");
+    assertRejected(new JsonObject().put("op", "create").put("event", new JsonObject().put("title", "Sprint")
+      .put(EventDates.START_DATE, "2017-06-02").put(EventDates.END_DATE, "2017-06-01")),
+      "Event's end date is before its start date.");
+    assertRejected(new JsonObject().put("op", "create").put("event", new JsonObject().put("title", "Sprint")
+      .put(EventDates.START_DATE, "2017-06-01").put(EventDates.END_DATE, "2017-07-02T00:00:01Z")),
+      "Event must not last more than 31 days.");
+  }
+
+  @Test
+  public void maps_the_write_errors_to_the_rejected_operations() {
+    for (int i = 0; i < results.length; i++) {
+      results[i] = new JsonObject().put("index", i).put("status", 200).put("id", "e" + i);
+    }
+    JsonObject notFound = new JsonObject().put("index", 1).put("status", 404).put("error", "Event not found.").put("id", "e1");
+    results[1] = notFound.copy();
+    MongoBulkWriteException exception = new MongoBulkWriteException(BulkWriteResult.unacknowledged(), Arrays.asList(
+      new BulkWriteError(11000, "duplicate key", new BsonDocument(), 0),
+      new BulkWriteError(121, "validation failed", new BsonDocument(), 2)), null, new ServerAddress());
+
+    // operations 0, 2 and 3 were sent, operation 1 was rejected before
+    EventDatabaseServiceImpl.writeErrors(exception, Arrays.asList(0, 2, 3), results);
+
+    assertEquals(new JsonObject().put("index", 0).put("status", 409).put("error", "duplicate key").put("id", "e0"),
+      results[0]);
+    assertEquals(notFound, results[1]);
+    assertEquals(200, (int) results[2].getInteger("status"));
+    assertEquals(new JsonObject().put("index", 3).put("status", 500).put("error", "validation failed").put("id", "e3"),
+      results[3]);
+  }
+
+  @Test
+  public void changes_an_event_once_per_bulk() {
+    List<Integer> indexes = new ArrayList<>();
+    List<BulkOperation> bulk = EventDatabaseServiceImpl.toBulkOperations(new JsonArray()
+      .add(new JsonObject().put("op", "update").put("id", "e1").put("event", new JsonObject().put("title", "Sprint")))
+      .add(new JsonObject().put("op", "delete").put("id", "e1"))
+      .add(new JsonObject().put("op", "delete").put("id", "e2"))
+      .add("delete"), MAX_DURATION, results, indexes);
+
+    assertEquals(Arrays.asList(0, 2), indexes);
+    assertEquals(2, bulk.size());
+    assertEquals(new JsonObject().put("index", 1).put("status", 409)
+      .put("error", "Event is already changed by another operation.").put("id", "e1"), results[1]);
+    assertEquals(new JsonObject().put("index", 3).put("status", 400).put("error", "Operation must be a JSON object."),
+      results[3]);
+  }
+
+  @Test
+  public void keeps_the_operations_matched_by_the_write() {
+    List<Integer> sentIndexes = Arrays.asList(0, 1, 2, 3);
+    List<BulkOperation> sent = sent(sentIndexes);
+
+    assertTrue(EventDatabaseServiceImpl.matched(BulkOperation.BulkOperationType.DELETE, 2, sent, sentIndexes, results));
+    assertTrue(EventDatabaseServiceImpl.matched(BulkOperation.BulkOperationType.UPDATE, 1, sent, sentIndexes, results));
+    assertEquals(204, (int) results[2].getInteger("status"));
+    assertEquals(200, (int) results[0].getInteger("status"));
+  }
+
+  @Test
+  public void rejects_the_operations_when_the_write_matched_none() {
+    List<Integer> sentIndexes = Arrays.asList(0, 1, 2, 3);
+    List<BulkOperation> sent = sent(sentIndexes);
+
+    assertTrue(EventDatabaseServiceImpl.matched(BulkOperation.BulkOperationType.DELETE, 0, sent, sentIndexes, results));
+    assertEquals(new JsonObject().put("index", 2).put("status", 404).put("error", "Event not found.").put("id", "e2"),
+      results[2]);
+    assertEquals(new JsonObject().put("index", 3).put("status", 404).put("error", "Event not found.").put("id", "e3"),
+      results[3]);
+    assertEquals(200, (int) results[0].getInteger("status"));
+  }
+
+  @Test
+  public void does_not_know_which_operations_the_write_matched() {
+    List<Integer> sentIndexes = Arrays.asList(0, 1, 2, 3);
+    List<BulkOperation> sent = sent(sentIndexes);
+
+    assertFalse(EventDatabaseServiceImpl.matched(BulkOperation.BulkOperationType.DELETE, 1, sent, sentIndexes, results));
+    assertEquals(204, (int) results[2].getInteger("status"));
+    assertEquals(204, (int) results[3].getInteger("status"));
+  }
+
+  /**
+   * An update, a create and two deletes, all sent.
+   */
+  private List<BulkOperation> sent(List<Integer> sentIndexes) {
+    List<Integer> indexes = new ArrayList<>();
+    List<BulkOperation> bulk = EventDatabaseServiceImpl.toBulkOperations(new JsonArray()
+      .add(new JsonObject().put("op", "update").put("id", "e0").put("event", new JsonObject().put("title", "Sprint")))
+      .add(new JsonObject().put("op", "create").put("event", new JsonObject().put("title", "Sprint")))
+      .add(new JsonObject().put("op", "delete").put("id", "e2"))
+      .add(new JsonObject().put("op", "delete").put("id", "e3")), MAX_DURATION, results, indexes);
+    assertEquals(sentIndexes, indexes);
+    return bulk;
+  }
+
+  private void assertRejected(JsonObject operation, String error) {
+    assertNull(EventDatabaseServiceImpl.toBulkOperation(2, operation, MAX_DURATION, results));
+    assertEquals(new JsonObject().put("index", 2).put("status", 400).put("error", error), results[2]);
+  }
+}
@@ -0,0 +1,32 @@
+package com.fbellotti.microservice.event.database;
+
+import com.fbellotti.microservice.event.model.Event;
+import com.fbellotti.microservice.event.model.EventDates;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class EventDocumentsTest {
+
+  @Test
+  public void stores_an_event_as_its_json_form() {
+    Event event = new Event(new JsonObject()
+      .put("title", "Sprint")
+      .put("projectCode", "cra")
+      .put(EventDates.START_DATE, "2017-06-01T09:00:00Z")
+      .put(EventDates.END_DATE, "2017-06-01"));
+
+    assertEquals(EventDocuments.toDocument(event.toJson()), EventDocuments.toDocument(event));
+  }
+
+  @Test
+  public void stores_an_event_without_dates() {
+    Event event = new Event(new JsonObject().put("title", "Sprint"));
+
+    assertEquals(new JsonObject().put("title", "Sprint"), EventDocuments.toDocument(event));
+  }
+}
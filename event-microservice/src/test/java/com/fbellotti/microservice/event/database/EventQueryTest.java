@@ -0,0 +1,136 @@
+package com.fbellotti.microservice.event.database;
+
+import com.fbellotti.microservice.event.model.EventDates;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class EventQueryTest {
+
+  private static final long MAX_DURATION = TimeUnit.DAYS.toMillis(31);
+
+  @Test
+  public void filters_the_events_overlapping_the_interval() {
+    JsonObject filter = query(new JsonObject()
+      .put("from", "2017-06-01")
+      .put("to", "2017-07-01")
+      .put("owner", "florian")).getFilter();
+
+    // the start date is bounded on both sides, the index range starts one maximum duration before the interval
+    assertEquals(new JsonObject().put("$and", new JsonArray()
+      .add(new JsonObject().put(EventDates.START_DATE, new JsonObject()
+        .put("$gte", mongoDate("2017-05-01T00:00:00Z"))
+        .put("$lt", mongoDate("2017-07-01T00:00:00Z"))))
+      .add(new JsonObject().put(EventDates.END_DATE, new JsonObject().put("$gte", mongoDate("2017-06-01T00:00:00Z"))))
+      .add(new JsonObject().put("owner", "florian"))), filter);
+  }
+
+  @Test
+  public void bounds_the_start_date_of_an_open_interval() {
+    JsonObject filter = query(new JsonObject().put("from", "2017-06-01")).getFilter();
+
+    assertEquals(new JsonObject().put("$and", new JsonArray()
+      .add(new JsonObject().put(EventDates.START_DATE, new JsonObject().put("$gte", mongoDate("2017-05-01T00:00:00Z"))))
+      .add(new JsonObject().put(EventDates.END_DATE, new JsonObject().put("$gte", mongoDate("2017-06-01T00:00:00Z"))))),
+      filter);
+  }
+
+  @Test
+  public void reads_one_more_event_than_the_page() {
+    EventQuery query = query(new JsonObject().put("limit", 2));
+
+    assertEquals(new JsonObject(), query.getFilter());
+    assertEquals(3, query.getOptions().getLimit());
+    assertEquals(501, query(new JsonObject().put("limit", 10000)).getOptions().getLimit());
+  }
+
+  @Test
+  public void gives_the_cursor_of_the_next_page() {
+    EventQuery query = query(new JsonObject().put("limit", 2));
+    List<JsonObject> documents = Arrays.asList(
+      document("a", "2017-06-01T09:00:00Z"),
+      document("b", "2017-06-02T09:00:00Z"),
+      document("c", "2017-06-02T09:00:00Z"));
+
+    JsonObject page = query.page(documents);
+    assertEquals(2, page.getJsonArray("events").size());
+    assertEquals("2017-06-01T09:00:00Z", page.getJsonArray("events").getJsonObject(0).getString(EventDates.START_DATE));
+
+    JsonObject after = query(new JsonObject().put("after", page.getString("next"))).getFilter();
+    JsonObject date = mongoDate("2017-06-02T09:00:00Z");
+    assertEquals(new JsonObject().put("$and", new JsonArray().add(new JsonObject().put("$or", new JsonArray()
+      .add(new JsonObject().put(EventDates.START_DATE, new JsonObject().put("$gt", date)))
+      .add(new JsonObject().put(EventDates.START_DATE, date).put("_id", new JsonObject().put("$gt", "b")))))), after);
+  }
+
+  @Test
+  public void gives_no_cursor_on_the_last_page() {
+    EventQuery query = query(new JsonObject().put("limit", 2));
+
+    JsonObject page = query.page(Arrays.asList(document("a", "2017-06-01T09:00:00Z"), document("b", null)));
+    assertEquals(2, page.getJsonArray("events").size());
+    assertFalse(page.containsKey("next"));
+  }
+
+  @Test
+  public void pages_the_events_without_start_date_first() {
+    EventQuery query = query(new JsonObject().put("limit", 1));
+
+    String next = query.page(Arrays.asList(document("a", null), document("b", null))).getString("next");
+    JsonObject after = query(new JsonObject().put("after", next)).getFilter();
+    JsonArray or = after.getJsonArray("$and").getJsonObject(0).getJsonArray("$or");
+    assertEquals(new JsonObject().put(EventDates.START_DATE, new JsonObject().put("$type", "date")), or.getJsonObject(0));
+    assertNull(or.getJsonObject(1).getValue(EventDates.START_DATE));
+    assertTrue(or.getJsonObject(1).containsKey(EventDates.START_DATE));
+    assertEquals(new JsonObject().put("$gt", "a"), or.getJsonObject(1).getJsonObject("_id"));
+  }
+
+  @Test
+  public void rejects_the_invalid_criteria() {
+    assertInvalid(new JsonObject().put("after", "not a cursor"));
+    assertInvalid(new JsonObject().put("after", "e30"));
+    assertInvalid(new JsonObject().put("limit", 0));
+    assertInvalid(new JsonObject().put("limit", "ten"));
+    assertInvalid(new JsonObject().put("from", "yesterday"));
+  }
+
+  private static EventQuery query(JsonObject query) {
+    return new EventQuery(query, MAX_DURATION);
+  }
+
+  private static void assertInvalid(JsonObject query) {
+    try {
+      query(query);
+      fail("Accepted " + query.encode());
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  private static JsonObject document(String id, String startDate) {
+    JsonObject document = new JsonObject().put("_id", id).put("title", id);
+    if (startDate != null) {
+      document.put(EventDates.START_DATE, EventDates.toMongo(EventDates.parse(startDate)));
+    }
+    return document;
+  }
+
+  private static JsonObject mongoDate(String date) {
+    return EventDates.toMongo(Date.from(Instant.parse(date)));
+  }
+}
@@ -0,0 +1,108 @@
+package com.fbellotti.microservice.event.http;
+
+import com.fbellotti.microservice.event.database.EventDatabaseService;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+@RunWith(VertxUnitRunner.class)
+public class EventExporterTest {
+
+  private static final int PAGES = 20;
+  private static final int PAGE_SIZE = 50;
+
+  private Vertx vertx;
+  private int inFlight;
+  private int maxInFlight;
+
+  @Before
+  public void prepare() {
+    vertx = Vertx.vertx();
+  }
+
+  @Test
+  public void reads_each_page_once_when_the_response_is_full(TestContext context) {
+    Async async = context.async();
+    EventExporter exporter = new EventExporter(service(), PAGE_SIZE);
+    AtomicBoolean full = new AtomicBoolean();
+
+    HttpServer server = vertx.createHttpServer().requestHandler(request -> {
+      // a small write queue, the paused client fills it and the socket buffers within a few pages
+      request.response().setWriteQueueMaxSize(16 * 1024);
+      vertx.setPeriodic(10, id -> {
+        if (!request.response().ended() && request.response().writeQueueFull()) {
+          full.set(true);
+        }
+      });
+      exporter.export(request.response(), new JsonObject(), EventExporter.NDJSON, context::fail);
+    });
+    server.listen(0, context.asyncAssertSuccess(listening ->
+      vertx.createHttpClient().getNow(server.actualPort(), "localhost", "/", response -> {
+        response.bodyHandler(body -> {
+          String[] lines = body.toString().split("\n");
+          context.assertEquals(PAGES * PAGE_SIZE, lines.length);
+          for (int i = 0; i < lines.length; i++) {
+            context.assertEquals(String.valueOf(i), new JsonObject(lines[i]).getString("_id"));
+          }
+          context.assertTrue(full.get(), "the write queue was never full");
+          context.assertEquals(1, maxInFlight);
+          async.complete();
+        });
+        response.pause();
+        vertx.setTimer(200, id -> response.resume());
+      })));
+  }
+
+  /**
+   * A service answering the page queries after a while, with large events.
+   */
+  private EventDatabaseService service() {
+    String title = new String(new char[10000]).replace('\0', 'x');
+    return (EventDatabaseService) Proxy.newProxyInstance(getClass().getClassLoader(),
+      new Class<?>[]{EventDatabaseService.class}, (proxy, method, args) -> {
+        if (!"queryEvents".equals(method.getName())) {
+          throw new UnsupportedOperationException(method.getName());
+        }
+        JsonObject query = (JsonObject) args[0];
+        @SuppressWarnings("unchecked")
+        Handler<AsyncResult<JsonObject>> handler = (Handler<AsyncResult<JsonObject>>) args[1];
+        int page = query.containsKey("after") ? Integer.parseInt(query.getString("after")) : 0;
+        maxInFlight = Math.max(maxInFlight, ++inFlight);
+        vertx.setTimer(5, id -> {
+          inFlight--;
+          JsonArray events = new JsonArray();
+          for (int i = 0; i < PAGE_SIZE; i++) {
+            events.add(new JsonObject().put("_id", String.valueOf(page * PAGE_SIZE + i)).put("title", title));
+          }
+          JsonObject result = new JsonObject().put("events", events);
+          if (page + 1 < PAGES) {
+            result.put("next", String.valueOf(page + 1));
+          }
+          handler.handle(Future.succeededFuture(result));
+        });
+        return proxy;
+      });
+  }
+
+  @After
+  public void finish(TestContext context) {
+    vertx.close(context.asyncAssertSuccess());
+  }
+}
@@ -0,0 +1,308 @@
+package com.fbellotti.microservice.event.report;
+
+import com.fbellotti.microservice.event.model.EventDates;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="http://fbellotti.com">Florian BELLOTTI</a>
+ */
+public class ActivityRollupsTest {
+
+  private final ActivityRollups rollups = new ActivityRollups(null, new JsonObject());
+
+  @Test
+  public void counts_the_time_of_a_day_up_to_a_working_day() {
+    assertEquals(minutes("florian|cra|2017-06", 210), rollups(event("florian", "cra",
+      "2017-06-01T09:00:00Z", "2017-06-01T12:30:00Z")));
+    assertEquals(minutes("florian|cra|2017-06", 480), rollups(event("florian", "cra",
+      "2017-06-01T09:00:00Z", "2017-06-01T20:00:00Z")));
+  }
+
+  @Test
+  public void splits_an_event_per_day_and_per_month() {
+    Map<String, Long> expected = minutes("florian|cra|2017-06", 480);
+    expected.put("florian|cra|2017-07", 480L + 420);
+
+    assertEquals(expected, rollups(event("florian", "cra", "2017-06-30T14:00:00Z", "2017-07-02T07:00:00Z")));
+  }
+
+  @Test
+  public void excludes_the_end_date() {
+    assertEquals(minutes("florian|cra|2017-06", 480), rollups(event("florian", "cra", "2017-06-30", "2017-07-01")));
+  }
+
+  @Test
+  public void keys_the_events_without_owner_or_project() {
+    assertEquals(minutes("||2017-06", 60), rollups(event(null, null, "2017-06-01T09:00:00Z", "2017-06-01T10:00:00Z")));
+  }
+
+  @Test
+  public void ignores_the_events_without_dates() {
+    assertTrue(rollups(event("florian", "cra", "2017-06-01T09:00:00Z", null)).isEmpty());
+    assertTrue(rollups(event("florian", "cra", null, null)).isEmpty());
+  }
+
+  @Test
+  public void updates_with_the_difference_between_the_versions() {
+    JsonObject previous = event("florian", "cra", "2017-06-01T09:00:00Z", "2017-06-01T12:00:00Z");
+    JsonObject current = event("florian", "cra", "2017-06-01T09:00:00Z", "2017-06-01T10:00:00Z");
+    Map<String, JsonObject> deltas = new HashMap<>();
+    rollups.contribute(previous, -1, deltas);
+    rollups.contribute(current, 1, deltas);
+
+    assertEquals(1, deltas.size());
+    assertEquals(new JsonObject()
+      .put("owner", "florian").put("projectCode", "cra").put("month", "2017-06").put("minutes", -120L),
+      deltas.get("florian|cra|2017-06"));
+  }
+
+  @Test
+  public void the_rebuild_pipeline_computes_the_same_rollups() {
+    List<JsonObject> events = Arrays.asList(
+      event("florian", "cra", "2017-06-01T09:00:00Z", "2017-06-01T12:30:00Z"),
+      event("florian", "cra", "2017-06-02T09:00:00Z", "2017-06-02T19:00:00Z"),
+      event("florian", "cra", "2017-06-29T22:00:00Z", "2017-07-03T01:30:00Z"),
+      event("florian", "site", "2017-06-05", "2017-06-10"),
+      event("bob", "cra", "2017-12-31T23:59:30Z", "2018-01-01T00:00:30Z"),
+      event("bob", null, "2017-07-14T09:00:00Z", "2017-07-14T09:00:00Z"),
+      event(null, "cra", "2017-02-27T08:00:00Z", "2017-03-01T10:00:00Z"),
+      event("bob", "cra", "2017-06-01T09:00:00Z", null));
+
+    Map<String, Long> expected = new HashMap<>();
+    for (JsonObject event : events) {
+      rollups(event).forEach((key, minutes) -> expected.merge(key, minutes, Long::sum));
+    }
+    Map<String, Long> rebuilt = new HashMap<>();
+    for (Map<String, Object> rollup : aggregate(rollups.rebuildPipeline(), events)) {
+      rebuilt.put((String) rollup.get("_id"), Math.round((Double) rollup.get("minutes")));
+    }
+    assertEquals(expected, rebuilt);
+  }
+
+  private Map<String, Long> rollups(JsonObject event) {
+    Map<String, JsonObject> deltas = new HashMap<>();
+    rollups.contribute(event, 1, deltas);
+    Map<String, Long> minutes = new HashMap<>();
+    deltas.forEach((key, delta) -> minutes.put(key, delta.getLong("minutes")));
+    return minutes;
+  }
+
+  private static Map<String, Long> minutes(String key, long minutes) {
+    Map<String, Long> rollups = new HashMap<>();
+    rollups.put(key, minutes);
+    return rollups;
+  }
+
+  private static JsonObject event(String owner, String projectCode, String startDate, String endDate) {
+    JsonObject event = new JsonObject().put("_id", "id").put("owner", owner).put("projectCode", projectCode);
+    if (startDate != null) {
+      event.put(EventDates.START_DATE, EventDates.toMongo(EventDates.parse(startDate)));
+    }
+    if (endDate != null) {
+      event.put(EventDates.END_DATE, EventDates.toMongo(EventDates.parse(endDate)));
+    }
+    return event;
+  }
+
+  /**
+   * Run an aggregation pipeline the way Mongo does, for the stages and operators of the rebuild.
+   */
+  private static List<Map<String, Object>> aggregate(JsonArray pipeline, List<JsonObject> events) {
+    List<Map<String, Object>> documents = new ArrayList<>();
+    for (JsonObject event : events) {
+      Map<String, Object> document = new HashMap<>();
+      event.forEach(field -> document.put(field.getKey(), evaluate(field.getValue(), document)));
+      documents.add(document);
+    }
+
+    for (Object value : pipeline) {
+      JsonObject stage = (JsonObject) value;
+      String name = stage.fieldNames().iterator().next();
+      List<Map<String, Object>> next = new ArrayList<>();
+      switch (name) {
+        case "$match":
+          for (Map<String, Object> document : documents) {
+            if (matches(document, stage.getJsonObject(name))) {
+              next.add(document);
+            }
+          }
+          break;
+        case "$project":
+          for (Map<String, Object> document : documents) {
+            next.add(project(document, stage.getJsonObject(name)));
+          }
+          break;
+        case "$unwind":
+          String field = stage.getString(name).substring(1);
+          for (Map<String, Object> document : documents) {
+            for (Object item : (List<?>) document.get(field)) {
+              Map<String, Object> unwound = new HashMap<>(document);
+              unwound.put(field, item);
+              next.add(unwound);
+            }
+          }
+          break;
+        case "$group":
+          next.addAll(group(documents, stage.getJsonObject(name)));
+          break;
+        case "$out":
+          return documents;
+        default:
+          throw new IllegalArgumentException("Unsupported stage: " + name);
+      }
+      documents = next;
+    }
+    return documents;
+  }
+
+  private static boolean matches(Map<String, Object> document, JsonObject match) {
+    for (String field : match.fieldNames()) {
+      JsonObject condition = match.getJsonObject(field);
+      Object value = document.get(field);
+      if (condition.containsKey("$type") && !(value instanceof Date)) {
+        return false;
+      }
+      if (condition.containsKey("$gt") && ((Number) value).doubleValue() <= condition.getDouble("$gt")) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static Map<String, Object> project(Map<String, Object> document, JsonObject projection) {
+    Map<String, Object> projected = new HashMap<>();
+    projected.put("_id", document.get("_id"));
+    for (String field : projection.fieldNames()) {
+      Object value = projection.getValue(field);
+      if (Integer.valueOf(1).equals(value)) {
+        projected.put(field, document.get(field));
+      } else {
+        projected.put(field, evaluate(value, document));
+      }
+    }
+    return projected;
+  }
+
+  private static List<Map<String, Object>> group(List<Map<String, Object>> documents, JsonObject group) {
+    Map<Object, Map<String, Object>> groups = new LinkedHashMap<>();
+    for (Map<String, Object> document : documents) {
+      Object id = evaluate(group.getValue("_id"), document);
+      Map<String, Object> result = groups.computeIfAbsent(id, k -> new HashMap<>());
+      result.put("_id", id);
+      for (String field : group.fieldNames()) {
+        if (!"_id".equals(field)) {
+          double value = (Double) evaluate(group.getJsonObject(field).getValue("$sum"), document);
+          result.merge(field, value, (a, b) -> (Double) a + (Double) b);
+        }
+      }
+    }
+    return new ArrayList<>(groups.values());
+  }
+
+  private static Object evaluate(Object expression, Map<String, Object> document) {
+    if (expression instanceof String && ((String) expression).startsWith("$")) {
+      Object value = document;
+      for (String field : ((String) expression).substring(1).split("\\.")) {
+        value = value == null ? null : ((Map<?, ?>) value).get(field);
+      }
+      return value;
+    }
+    if (expression instanceof Number) {
+      return ((Number) expression).doubleValue();
+    }
+    if (expression instanceof JsonArray) {
+      List<Object> values = new ArrayList<>();
+      for (Object item : (JsonArray) expression) {
+        values.add(evaluate(item, document));
+      }
+      return values;
+    }
+    if (expression instanceof JsonObject && ((JsonObject) expression).containsKey("$date")) {
+      return EventDates.parse(expression);
+    }
+    if (expression instanceof JsonObject) {
+      JsonObject object = (JsonObject) expression;
+      String name = object.fieldNames().iterator().next();
+      if (name.startsWith("$")) {
+        return operator(name, evaluate(object.getValue(name), document));
+      }
+      Map<String, Object> values = new LinkedHashMap<>();
+      object.forEach(field -> values.put(field.getKey(), evaluate(field.getValue(), document)));
+      return values;
+    }
+    return expression;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Object operator(String name, Object argument) {
+    List<Object> args = argument instanceof List ? (List<Object>) argument : null;
+    switch (name) {
+      case "$subtract":
+        if (args.get(0) instanceof Date && args.get(1) instanceof Date) {
+          return (double) (((Date) args.get(0)).getTime() - ((Date) args.get(1)).getTime());
+        }
+        if (args.get(0) instanceof Date) {
+          return new Date(((Date) args.get(0)).getTime() - ((Double) args.get(1)).longValue());
+        }
+        return (Double) args.get(0) - (Double) args.get(1);
+      case "$add":
+        if (args.get(0) instanceof Date) {
+          return new Date(((Date) args.get(0)).getTime() + ((Double) args.get(1)).longValue());
+        }
+        return (Double) args.get(0) + (Double) args.get(1);
+      case "$multiply":
+        return (Double) args.get(0) * (Double) args.get(1);
+      case "$divide":
+        return (Double) args.get(0) / (Double) args.get(1);
+      case "$mod":
+        return (Double) args.get(0) % (Double) args.get(1);
+      case "$ceil":
+        return Math.ceil((Double) argument);
+      case "$trunc":
+        return (double) ((Double) argument).longValue();
+      case "$min":
+      case "$max":
+        int order = Long.compare(comparable(args.get(0)), comparable(args.get(1)));
+        return ("$min".equals(name) ? order <= 0 : order >= 0) ? args.get(0) : args.get(1);
+      case "$range":
+        List<Object> range = new ArrayList<>();
+        for (double i = (Double) args.get(0); i < (Double) args.get(1); i++) {
+          range.add(i);
+        }
+        return range;
+      case "$dateToString":
+        Map<String, Object> options = (Map<String, Object>) argument;
+        assertEquals("%Y-%m", options.get("format"));
+        return DateTimeFormatter.ofPattern("yyyy-MM").withZone(ZoneOffset.UTC)
+          .format(Instant.ofEpochMilli(((Date) options.get("date")).getTime()));
+      case "$concat":
+        StringBuilder concat = new StringBuilder();
+        args.forEach(concat::append);
+        return concat.toString();
+      case "$ifNull":
+        return args.get(0) == null ? args.get(1) : args.get(0);
+      default:
+        throw new IllegalArgumentException("Unsupported operator: " + name);
+    }
+  }
+
+  private static long comparable(Object value) {
+    return value instanceof Date ? ((Date) value).getTime() : ((Double) value).longValue();
+  }
+}
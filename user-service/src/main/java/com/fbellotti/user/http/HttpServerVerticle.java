@@ -4,6 +4,7 @@ import com.fbellotti.user.database.UserDatabaseService;
 import com.fbellotti.user.database.UserDatabaseVerticle;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
+import io.vertx.core.http.Http2Settings;
 import io.vertx.core.http.HttpServerOptions;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
@@ -26,6 +27,9 @@ import io.vertx.ext.web.handler.JWTAuthHandler;
  */
 public class HttpServerVerticle extends AbstractVerticle {
 
+  public static final String CONFIG_HTTP2_ENABLED = "http.http2.enabled";
+  public static final String CONFIG_HTTP2_MAX_CONCURRENT_STREAMS = "http.http2.max.concurrent.streams";
+
   private static final Logger LOGGER = LoggerFactory.getLogger(HttpServerVerticle.class);
 
   private UserDatabaseService dbService;
@@ -42,6 +46,14 @@ public class HttpServerVerticle extends AbstractVerticle {
         .setPath("server-keystore.jks")
         .setPassword("secret"));
 
+    // Enable HTTP/2, negotiated with ALPN
+    if (config().getBoolean(CONFIG_HTTP2_ENABLED, false)) {
+      httpServerOptions
+        .setUseAlpn(true)
+        .setInitialSettings(new Http2Settings().setMaxConcurrentStreams(
+          config().getLong(CONFIG_HTTP2_MAX_CONCURRENT_STREAMS, Http2Settings.DEFAULT_MAX_CONCURRENT_STREAMS)));
+    }
+
     // Secure api
     jwtAuth = JWTAuth.create(vertx, new JsonObject()
       .put("keyStore", new JsonObject()
@@ -81,10 +93,7 @@ public class HttpServerVerticle extends AbstractVerticle {
     if (rc.user().principal().getBoolean("canGetAll", false)) {
       dbService.findAllUsers(res -> {
         if (res.succeeded()) {
-          rc.response()
-            .setStatusCode(200)
-            .putHeader("content-type", "application/json; charset=utf-8")
-            .end(Json.encodePrettily(res.result()));
+          ResponseWriter.write(rc, 200, res.result());
         } else {
           LOGGER.error("Failed to find all users", res.cause());
           executionError(rc, res);
@@ -103,15 +112,9 @@ public class HttpServerVerticle extends AbstractVerticle {
       dbService.findUserById(rc.request().getParam("id"), res -> {
         if (res.succeeded()) {
           if (res.result() == null || res.result().getString("_id") == null) {
-            rc.response()
-              .setStatusCode(404)
-              .putHeader("content-type", "application/json; charset=utf-8")
-              .end(Json.encodePrettily(new Error("NOT_FOUND", "User not found")));
+            ResponseWriter.write(rc, 404, new Error("NOT_FOUND", "User not found"));
           } else {
-            rc.response()
-              .setStatusCode(200)
-              .putHeader("content-type", "application/json; charset=utf-8")
-              .end(Json.encodePrettily(res.result()));
+            ResponseWriter.write(rc, 200, res.result());
           }
         } else {
           LOGGER.error("Failed to find all users", res.cause());
@@ -133,18 +136,12 @@ public class HttpServerVerticle extends AbstractVerticle {
       // Check the received user
       Error error = checkUser(user);
       if (error != null) {
-        rc.response()
-          .setStatusCode(400)
-          .putHeader("content-type", "application/json; charset=utf-8")
-          .end(Json.encodePrettily(error));
+        ResponseWriter.write(rc, 400, error);
       }
 
       dbService.createUser(rc.getBodyAsJson(), res -> {
         if (res.succeeded()) {
-          rc.response()
-            .setStatusCode(201)
-            .putHeader("content-type", "application/json; charset=utf-8")
-            .end(Json.encodePrettily(res.result()));
+          ResponseWriter.write(rc, 201, res.result());
         } else {
           LOGGER.error("Failed to create user " + user.getUsername(), res.cause());
           executionError(rc, res);
@@ -168,10 +165,7 @@ public class HttpServerVerticle extends AbstractVerticle {
     // Check the received user
     Error error = checkUser(user);
     if (error != null) {
-      rc.response()
-        .setStatusCode(400)
-        .putHeader("content-type", "application/json; charset=utf-8")
-        .end(Json.encodePrettily(error));
+      ResponseWriter.write(rc, 400, error);
     }
 
     JsonObject creds = new JsonObject()
@@ -193,10 +187,7 @@ public class HttpServerVerticle extends AbstractVerticle {
           new JWTOptions()
             .setSubject("Wiki API")
             .setIssuer("Vert.x"));
-        rc.response()
-          .setStatusCode(200)
-          .putHeader("content-type", "application/json; charset=utf-8")
-          .end(new JsonObject().put("token", token).encodePrettily());
+        ResponseWriter.write(rc, 200, new JsonObject().put("token", token));
       } else {
         LOGGER.error("Failed to authenticate user " + user.getUsername(), res.cause());
         executionError(rc, res);
@@ -267,9 +258,6 @@ public class HttpServerVerticle extends AbstractVerticle {
   }
 
   private void executionError(RoutingContext rc, AsyncResult res) {
-    rc.response()
-      .setStatusCode(500)
-      .putHeader("content-type", "application/json; charset=utf-8")
-      .end(Json.encodePrettily(new Error("EXECUTION_ERROR", res.cause().getMessage())));
+    ResponseWriter.write(rc, 500, new Error("EXECUTION_ERROR", res.cause().getMessage()));
   }
 }